@@ -0,0 +1,36 @@
+-- Merges the cart items that hold the same product in the same cart into one
+-- row, so that the unique key uk_cart_items_cart_product (cart_id, product_id)
+-- can be created. Run it once, on MySQL 8, before starting a version with
+-- that key on a database that may hold such duplicates.
+--
+-- The oldest item of each group is kept, with the summed quantity and
+-- subtotal. The subtotals are summed as they are, so cart totals do not move,
+-- even when the copies were added at different prices.
+
+START TRANSACTION;
+
+CREATE TEMPORARY TABLE cart_item_merges AS
+SELECT id,
+       ROW_NUMBER() OVER (PARTITION BY cart_id, product_id ORDER BY added_at, id) AS position,
+       COUNT(*) OVER (PARTITION BY cart_id, product_id) AS copies,
+       SUM(quantity) OVER (PARTITION BY cart_id, product_id) AS total_quantity,
+       SUM(subtotal) OVER (PARTITION BY cart_id, product_id) AS total_subtotal
+FROM cart_items
+WHERE cart_id IS NOT NULL AND product_id IS NOT NULL;
+
+UPDATE cart_items i
+JOIN cart_item_merges m ON m.id = i.id
+SET i.quantity = m.total_quantity, i.subtotal = m.total_subtotal
+WHERE m.position = 1 AND m.copies > 1;
+
+DELETE i
+FROM cart_items i
+JOIN cart_item_merges m ON m.id = i.id
+WHERE m.position > 1;
+
+DROP TEMPORARY TABLE cart_item_merges;
+
+COMMIT;
+
+-- Hibernate creates the key on startup with ddl-auto=update; otherwise:
+-- ALTER TABLE cart_items ADD CONSTRAINT uk_cart_items_cart_product UNIQUE (cart_id, product_id);
@@ -0,0 +1,76 @@
+package com.larr.app.e_commerce.benchmark;
+
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.larr.app.e_commerce.security.jwt.JwtUtils;
+
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.io.Decoders;
+import io.jsonwebtoken.security.Keys;
+
+/**
+ * What JwtFilter does with the cookie of every authenticated request: check
+ * the token and read the user email out of it.
+ *
+ * rebuiltParser is the way it used to be done, decoding the secret and building
+ * a parser for the validation and again for the extraction. cachedParser makes
+ * the same two parses with a key and parser built once, and singleParse is the
+ * one call the filter now makes. Runs on four threads, as the parser is shared
+ * by request threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class JwtParsingBenchmark {
+  private String secret;
+  private JwtParser parser;
+  private JwtUtils jwtUtils;
+  private String token;
+
+  @Setup
+  public void setUp() {
+    byte[] bytes = new byte[64];
+    new Random(42).nextBytes(bytes);
+    secret = Base64.getEncoder().encodeToString(bytes);
+    parser = Jwts.parser().verifyWith(Keys.hmacShaKeyFor(Decoders.BASE64.decode(secret))).build();
+    jwtUtils = new JwtUtils(secret, 86_400_000);
+    token = jwtUtils.generateJwtToken("shopper@example.com");
+  }
+
+  @Benchmark
+  public String rebuiltParser() {
+    Jwts.parser().verifyWith(Keys.hmacShaKeyFor(Decoders.BASE64.decode(secret))).build().parse(token);
+    return Jwts.parser().verifyWith(Keys.hmacShaKeyFor(Decoders.BASE64.decode(secret))).build()
+        .parseSignedClaims(token).getPayload().getSubject();
+  }
+
+  @Benchmark
+  public String cachedParser() {
+    parser.parse(token);
+    return parser.parseSignedClaims(token).getPayload().getSubject();
+  }
+
+  @Benchmark
+  public String singleParse() {
+    return jwtUtils.getEmailFromValidJwtToken(token);
+  }
+}
@@ -0,0 +1,123 @@
+package com.larr.app.e_commerce.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.larr.app.e_commerce.dto.ProductSummary;
+import com.larr.app.e_commerce.model.Category;
+import com.larr.app.e_commerce.model.Product;
+import com.larr.app.e_commerce.repository.CategoryRepository;
+import com.larr.app.e_commerce.repository.ProductRepository;
+
+/**
+ * Entity listings against the ProductSummary projections that replaced them.
+ *
+ * Runs the repositories on an in-memory H2 database seeded with
+ * {@code products} rows over {@code categories} categories. Run it with
+ * {@code -prof gc} to compare allocations per listing as well as latency.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProductListingBenchmark {
+
+  @Param({ "10000" })
+  private int products;
+
+  @Param({ "50" })
+  private int categories;
+
+  private ConfigurableApplicationContext context;
+  private ProductRepository productRepository;
+  private Category category;
+
+  @SpringBootConfiguration
+  @EnableAutoConfiguration
+  @EntityScan(basePackageClasses = Product.class)
+  @EnableJpaRepositories(basePackageClasses = ProductRepository.class)
+  static class BenchmarkApplication {
+  }
+
+  @Setup
+  public void setUp() {
+    context = new SpringApplicationBuilder(BenchmarkApplication.class)
+        .web(WebApplicationType.NONE)
+        .properties(
+            "spring.datasource.url=jdbc:h2:mem:catalog;MODE=MySQL;DB_CLOSE_DELAY=-1",
+            "spring.jpa.hibernate.ddl-auto=create-drop",
+            "spring.jpa.open-in-view=false",
+            "logging.level.root=WARN")
+        .run();
+    productRepository = context.getBean(ProductRepository.class);
+    seed(context.getBean(JdbcTemplate.class));
+    category = context.getBean(CategoryRepository.class).findAll().get(0);
+  }
+
+  @TearDown
+  public void tearDown() {
+    context.close();
+  }
+
+  @Benchmark
+  public List<Product> entityCatalog() {
+    return productRepository.findAll();
+  }
+
+  @Benchmark
+  public List<ProductSummary> summaryCatalog() {
+    return productRepository.findActiveSummaryPage("", Limit.of(products));
+  }
+
+  @Benchmark
+  public List<Product> entityCategoryListing() {
+    return productRepository.findAllByCategory(category);
+  }
+
+  @Benchmark
+  public List<ProductSummary> summaryCategoryListing() {
+    return productRepository.findActiveSummaryPageByCategoryName(category.getName(), "", Limit.of(products));
+  }
+
+  private void seed(JdbcTemplate jdbcTemplate) {
+    List<Object[]> categoryRows = new ArrayList<>();
+    for (int i = 0; i < categories; i++) {
+      categoryRows.add(new Object[] { UUID.randomUUID().toString(), "Category " + i });
+    }
+    jdbcTemplate.batchUpdate("INSERT INTO categories (id, category_name) VALUES (?, ?)", categoryRows);
+
+    List<Object[]> productRows = new ArrayList<>();
+    for (int i = 0; i < products; i++) {
+      productRows.add(new Object[] { UUID.randomUUID().toString(), "Product " + i, "Description of product " + i,
+          categoryRows.get(i % categories)[0], 10.0 + i % 100, i % 25, "https://img.example.com/" + i + ".png" });
+    }
+    jdbcTemplate.batchUpdate("INSERT INTO products (id, name, description, category_id, price, quantity, img_url, "
+        + "is_active, version) VALUES (?, ?, ?, ?, ?, ?, ?, true, 0)", productRows);
+  }
+}
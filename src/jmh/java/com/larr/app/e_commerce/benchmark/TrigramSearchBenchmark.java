@@ -0,0 +1,109 @@
+package com.larr.app.e_commerce.benchmark;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.larr.app.e_commerce.service.search.TrigramIndex;
+
+/**
+ * Fuzzy name search over a synthetic catalog of {@code products} names.
+ *
+ * Names combine one of a few thousand made-up brands with words from small
+ * shared vocabularies, so most trigrams are common ones, as in a real catalog.
+ * Queries are what a shopper types, a brand and a product word, with one or two
+ * letters dropped, doubled or swapped. Sample mode reports percentiles; the
+ * budget for the fuzzy mode is a p99 under 50 ms per query at one million
+ * products.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = { "-Xms2g", "-Xmx2g" })
+public class TrigramSearchBenchmark {
+  private static final String[] ADJECTIVES = { "classic", "compact", "deluxe", "ergonomic", "foldable",
+      "lightweight", "portable", "premium", "rugged", "slim", "smart", "vintage", "wireless", "waterproof" };
+  private static final String[] MATERIALS = { "aluminium", "bamboo", "canvas", "ceramic", "cotton", "leather",
+      "linen", "oak", "plastic", "silicone", "steel", "walnut", "wool" };
+  private static final String[] SYLLABLES = { "ka", "lo", "mi", "ra", "ven", "tor", "zu", "fel", "qua", "nor",
+      "dex", "sol", "bri", "gar", "pix", "lun", "tek", "vio", "mar", "oxi" };
+  private static final String[] NOUNS = { "backpack", "blender", "bottle", "chair", "desk", "headphones",
+      "jacket", "kettle", "keyboard", "lamp", "mouse", "notebook", "speaker", "sneakers", "tent", "watch" };
+
+  @Param({ "1000000" })
+  private int products;
+
+  private TrigramIndex index;
+  private String[] queries;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(42);
+    String[] brands = new String[5000];
+    for (int i = 0; i < brands.length; i++) {
+      StringBuilder brand = new StringBuilder();
+      for (int syllables = 2 + random.nextInt(2); syllables > 0; syllables--) {
+        brand.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+      }
+      brands[i] = brand.toString();
+    }
+
+    index = new TrigramIndex();
+    queries = new String[1024];
+    for (int i = 0; i < products; i++) {
+      String brand = brands[random.nextInt(brands.length)];
+      String noun = NOUNS[random.nextInt(NOUNS.length)];
+      index.add(Integer.toString(i), brand + " " + ADJECTIVES[random.nextInt(ADJECTIVES.length)] + " "
+          + MATERIALS[random.nextInt(MATERIALS.length)] + " " + noun + " " + Integer.toString(i, 36));
+      if (i < queries.length) {
+        queries[i] = misspell(brand + " " + noun, random);
+      }
+    }
+  }
+
+  @Benchmark
+  public List<TrigramIndex.Match> fuzzySearch(QueryCursor cursor) {
+    return index.search(queries[cursor.next()], 50, 0.3);
+  }
+
+  @State(Scope.Thread)
+  public static class QueryCursor {
+    private int position;
+
+    int next() {
+      position = (position + 1) & 1023;
+      return position;
+    }
+  }
+
+  private static String misspell(String name, Random random) {
+    StringBuilder typo = new StringBuilder(name);
+    for (int edits = 1 + random.nextInt(2); edits > 0; edits--) {
+      int at = 1 + random.nextInt(typo.length() - 2);
+      switch (random.nextInt(3)) {
+        case 0 -> typo.deleteCharAt(at);
+        case 1 -> typo.insert(at, typo.charAt(at));
+        default -> {
+          char swapped = typo.charAt(at);
+          typo.setCharAt(at, typo.charAt(at + 1));
+          typo.setCharAt(at + 1, swapped);
+        }
+      }
+    }
+    return typo.toString();
+  }
+}
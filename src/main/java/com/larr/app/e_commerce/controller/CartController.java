@@ -1,22 +1,29 @@
 package com.larr.app.e_commerce.controller;
 
 import java.util.function.Function;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import com.larr.app.e_commerce.dto.CartSummary;
 import com.larr.app.e_commerce.dto.CartUpdateRequest;
+import com.larr.app.e_commerce.dto.StockReservationResult;
 import com.larr.app.e_commerce.model.Cart;
 import com.larr.app.e_commerce.security.service.CartService;
+import com.larr.app.e_commerce.service.CheckoutService;
 import com.larr.app.e_commerce.service.UserService;
 
 @RestController
@@ -25,10 +32,12 @@ public class CartController {
 
   private final CartService service;
   private final UserService userService;
+  private final CheckoutService checkoutService;
 
-  public CartController(CartService service, UserService userService) {
+  public CartController(CartService service, UserService userService, CheckoutService checkoutService) {
     this.service = service;
     this.userService = userService;
+    this.checkoutService = checkoutService;
   }
 
   @PostMapping("/save")
@@ -44,17 +53,53 @@ public class CartController {
 
   @GetMapping("/{id}")
   public ResponseEntity<?> getCart(@PathVariable String id) {
-    return findCartAndProceed(id, ResponseEntity::ok);
+    return findCartAndProceed(id,
+        cart -> ResponseEntity.ok().eTag(RowVersions.eTag(cart.getVersion())).body(cart));
   }
 
+  // Cart header, items and their products in one round trip to the database
+  @GetMapping("/{id}/summary")
+  public ResponseEntity<?> getCartSummary(@PathVariable String id) {
+    CartSummary summary = service.findCartSummary(id);
+    if (summary == null) {
+      return new ResponseEntity<>("Cart with ID: " + id + " not found.", HttpStatus.NOT_FOUND);
+    }
+    return ResponseEntity.ok(summary);
+  }
+
+  // Needs the cart ETag in If-Match
   @PatchMapping("/{id}/status")
-  public ResponseEntity<?> updateCartStatus(@PathVariable String id, @RequestBody CartUpdateRequest request) {
-    return findCartAndProceed(id, cart -> ResponseEntity.ok(service.updateCartStatus(request.getStatus(), cart)));
+  public ResponseEntity<?> updateCartStatus(@PathVariable String id, @RequestBody CartUpdateRequest request,
+      @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+    Long version = RowVersions.fromIfMatch(ifMatch);
+    if (version == null) {
+      return RowVersions.ifMatchRequired();
+    }
+    return findCartAndProceed(id, cart -> {
+      Cart updated = service.updateCartStatus(request.getStatus(), cart, version);
+      return ResponseEntity.ok().eTag(RowVersions.eTag(updated.getVersion())).body(updated);
+    });
+  }
+
+  // Reserves the stock of the whole cart until it is paid for or expires.
+  // The payment endpoints do this themselves, so calling it first is optional
+  @PostMapping("/{id}/checkout")
+  public ResponseEntity<?> checkout(@PathVariable String id) {
+    return findCartAndProceed(id, cart -> checkoutResponse(checkoutService.reserve(cart)));
   }
 
-  @PatchMapping("/{id}/price")
-  public ResponseEntity<?> updateCartPrice(@PathVariable String id, @RequestBody CartUpdateRequest request) {
-    return findCartAndProceed(id, cart -> ResponseEntity.ok(service.updateCartPrice(cart, request.getTotalprice())));
+  @DeleteMapping("/{id}/checkout")
+  public ResponseEntity<?> cancelCheckout(@PathVariable String id) {
+    return findCartAndProceed(id, cart -> {
+      checkoutService.release(cart);
+      return ResponseEntity.ok("Stock reservation released");
+    });
+  }
+
+  @PreAuthorize("hasRole('ADMIN')")
+  @PostMapping("/{id}/total/recompute")
+  public ResponseEntity<?> recomputeCartTotal(@PathVariable String id) {
+    return findCartAndProceed(id, cart -> ResponseEntity.ok(service.recomputeTotal(cart)));
   }
 
   private ResponseEntity<?> findCartAndProceed(String id, Function<Cart, ResponseEntity<?>> action) {
@@ -67,4 +112,20 @@ public class CartController {
 
   }
 
+  static ResponseEntity<?> checkoutResponse(StockReservationResult result) {
+    if (result == null) {
+      return new ResponseEntity<>("Cart is empty", HttpStatus.BAD_REQUEST);
+    }
+    if (result.refusal() != null) {
+      return switch (result.refusal()) {
+        case INACTIVE_CART -> new ResponseEntity<>("Cart is no longer active", HttpStatus.CONFLICT);
+        case INVALID_QUANTITY -> new ResponseEntity<>("Quantity must be greater than 0 for products: "
+            + String.join(", ", result.products()), HttpStatus.BAD_REQUEST);
+        case OUT_OF_STOCK -> new ResponseEntity<>("Not enough in stock for products: "
+            + String.join(", ", result.products()), HttpStatus.CONFLICT);
+      };
+    }
+    return ResponseEntity.ok(result.reservation());
+  }
+
 }
\ No newline at end of file
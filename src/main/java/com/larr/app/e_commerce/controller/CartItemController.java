@@ -1,7 +1,9 @@
 package com.larr.app.e_commerce.controller;
 
+import java.util.List;
 import java.util.function.Function;
 
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
@@ -10,9 +12,12 @@ import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import com.larr.app.e_commerce.dto.CartItemBatchEntry;
+import com.larr.app.e_commerce.dto.CartItemBatchResult;
 import com.larr.app.e_commerce.dto.CartItemUpdateRequest;
 import com.larr.app.e_commerce.model.Cart;
 import com.larr.app.e_commerce.model.CartItem;
@@ -32,20 +37,65 @@ public class CartItemController {
 
   @GetMapping("/{itemId}")
   public ResponseEntity<?> getCart(@PathVariable String itemId, @PathVariable String cartId) {
-    return findCartItemAndProceed(itemId, cartId, ResponseEntity::ok);
+    return findCartItemAndProceed(itemId, cartId,
+        item -> ResponseEntity.ok().eTag(RowVersions.eTag(item.getVersion())).body(item));
   }
 
   @PostMapping("/save")
   public ResponseEntity<?> addItemtoCart(@PathVariable String cartId, @RequestBody CartItem item) {
     Cart cart = cartService.findCart(cartId);
-    return ResponseEntity.ok(service.addToCart(cart, item));
+    if (cart == null) {
+      return new ResponseEntity<>("Cart with ID: " + cartId + " not found.", HttpStatus.NOT_FOUND);
+    }
+    CartItem saved = service.addToCart(cart, item);
+    if (saved == null) {
+      return new ResponseEntity<>("Product not found", HttpStatus.NOT_FOUND);
+    }
+    return ResponseEntity.ok(saved);
   }
 
+  // Adds every entry in one transaction; quantities add up per product
+  @PostMapping("/batch")
+  public ResponseEntity<?> addItemsToCart(@PathVariable String cartId,
+      @RequestBody List<CartItemBatchEntry> entries) {
+    if (entries.isEmpty()) {
+      return new ResponseEntity<>("No items to add", HttpStatus.BAD_REQUEST);
+    }
+    for (CartItemBatchEntry entry : entries) {
+      if (entry.productId() == null || entry.quantity() <= 0) {
+        return new ResponseEntity<>("Every item needs a productId and a positive quantity",
+            HttpStatus.BAD_REQUEST);
+      }
+    }
+
+    Cart cart = cartService.findCart(cartId);
+    if (cart == null) {
+      return new ResponseEntity<>("Cart with ID: " + cartId + " not found.", HttpStatus.NOT_FOUND);
+    }
+    CartItemBatchResult result = service.addToCart(cart, entries);
+    if (!result.unknownProducts().isEmpty()) {
+      return new ResponseEntity<>("Products not found: " + String.join(", ", result.unknownProducts()),
+          HttpStatus.NOT_FOUND);
+    }
+    return ResponseEntity.ok(result);
+  }
+
+  // Needs the item ETag in If-Match
   @PatchMapping("/{itemId}")
   public ResponseEntity<?> updateCartItem(@PathVariable String cartId, @PathVariable String itemId,
-      @RequestBody CartItemUpdateRequest request) {
-    return findCartItemAndProceed(itemId, cartId,
-        item -> ResponseEntity.ok(service.updateCartItemQuantity(item, request.getQuantity())));
+      @RequestBody CartItemUpdateRequest request,
+      @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+    Long version = RowVersions.fromIfMatch(ifMatch);
+    if (version == null) {
+      return RowVersions.ifMatchRequired();
+    }
+    return findCartItemAndProceed(itemId, cartId, item -> {
+      CartItem updated = service.updateCartItemQuantity(item, version, request.getQuantity());
+      if (updated == null) {
+        return new ResponseEntity<>("Cart item with id:" + itemId + " not found", HttpStatus.NOT_FOUND);
+      }
+      return ResponseEntity.ok().eTag(RowVersions.eTag(updated.getVersion())).body(updated);
+    });
 
   }
 
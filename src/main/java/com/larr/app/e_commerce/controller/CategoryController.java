@@ -4,6 +4,7 @@ import org.springframework.web.bind.annotation.RestController;
 
 import com.larr.app.e_commerce.dto.CategoryUpdateRequest;
 import com.larr.app.e_commerce.model.Category;
+import com.larr.app.e_commerce.service.CatalogVersion;
 import com.larr.app.e_commerce.service.CategoryService;
 
 import java.util.List;
@@ -16,14 +17,17 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.context.request.WebRequest;
 
 @RestController
 @RequestMapping(value = "/api/categories")
 public class CategoryController {
   private final CategoryService service;
+  private final CatalogVersion catalogVersion;
 
-  public CategoryController(CategoryService service) {
+  public CategoryController(CategoryService service, CatalogVersion catalogVersion) {
     this.service = service;
+    this.catalogVersion = catalogVersion;
   }
 
   @GetMapping("/{id}")
@@ -52,7 +56,10 @@ public class CategoryController {
   }
 
   @GetMapping(value = "/all")
-  public ResponseEntity<?> findAllCategories() {
+  public ResponseEntity<?> findAllCategories(WebRequest request) {
+    if (request.checkNotModified(catalogVersion.eTag())) {
+      return null;
+    }
     List<Category> categories = service.findAllCategories();
 
     if (categories == null || categories.isEmpty()) {
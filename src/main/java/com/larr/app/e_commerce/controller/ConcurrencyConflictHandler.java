@@ -0,0 +1,24 @@
+package com.larr.app.e_commerce.controller;
+
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+import com.larr.app.e_commerce.service.VersionConflictException;
+
+import jakarta.persistence.OptimisticLockException;
+
+// A write that kept losing to concurrent ones after its retries, or that was
+// based on a version the row no longer has; the client can reload and retry
+@RestControllerAdvice
+public class ConcurrencyConflictHandler {
+
+  @ExceptionHandler({ OptimisticLockingFailureException.class, OptimisticLockException.class,
+      VersionConflictException.class })
+  public ResponseEntity<?> handleConflict(Exception e) {
+    return new ResponseEntity<>("The resource was changed by another request, please reload and retry",
+        HttpStatus.CONFLICT);
+  }
+}
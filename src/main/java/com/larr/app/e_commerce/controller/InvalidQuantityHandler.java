@@ -0,0 +1,18 @@
+package com.larr.app.e_commerce.controller;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+import com.larr.app.e_commerce.service.InvalidQuantityException;
+
+// Cart item quantities are checked by the service, whichever endpoint calls it
+@RestControllerAdvice
+public class InvalidQuantityHandler {
+
+  @ExceptionHandler(InvalidQuantityException.class)
+  public ResponseEntity<?> handleInvalidQuantity(InvalidQuantityException e) {
+    return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+  }
+}
@@ -2,6 +2,7 @@ package com.larr.app.e_commerce.controller;
 
 import java.io.IOException;
 
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -11,9 +12,13 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import com.larr.app.e_commerce.dto.PaymentRequest;
+import com.larr.app.e_commerce.dto.StockReservationResult;
 import com.larr.app.e_commerce.model.Cart;
+import com.larr.app.e_commerce.model.Payment;
+import com.larr.app.e_commerce.model.PaymentStatus;
 import com.larr.app.e_commerce.model.User;
 import com.larr.app.e_commerce.security.service.CartService;
+import com.larr.app.e_commerce.service.CheckoutService;
 import com.larr.app.e_commerce.service.PayPalService;
 import com.larr.app.e_commerce.service.UserService;
 
@@ -26,6 +31,7 @@ public class PayPalController {
   private final PayPalService service;
   private final CartService cartService;
   private final UserService userService;
+  private final CheckoutService checkoutService;
 
   @PostMapping("/create")
   public ResponseEntity<?> createPayment(@RequestBody PaymentRequest request) {
@@ -33,11 +39,21 @@ public class PayPalController {
       // Fetch entities from database
       Cart cart = cartService.findCart(request.getCartId());
       User user = userService.getUserById(request.getUserId());
+      StockReservationResult reservation = checkoutService.reserve(cart);
+      if (reservation == null || reservation.reservation() == null) {
+        return CartController.checkoutResponse(reservation);
+      }
       Double amount = cart.getTotalprice();
 
       String currency = "USD";
 
-      String approvalLink = service.createPayment(amount, currency, user, cart);
+      String approvalLink;
+      try {
+        approvalLink = service.createPayment(amount, currency, user, cart, reservation.reservation());
+      } catch (IOException | RuntimeException e) {
+        checkoutService.release(reservation);
+        throw e;
+      }
 
       return ResponseEntity.ok(approvalLink);
     } catch (IOException e) {
@@ -52,15 +68,22 @@ public class PayPalController {
   @GetMapping("/success")
   public ResponseEntity<?> successPay(@RequestParam("token") String token, @RequestParam("PayerID") String payerId) {
     try {
-      service.completePayment(token);
+      Payment payment = service.completePayment(token);
+      if (payment.getStatus() != PaymentStatus.completed) {
+        return new ResponseEntity<>("Payment " + payment.getStatus(), HttpStatus.CONFLICT);
+      }
       return ResponseEntity.ok("Payment completed successfully!");
     } catch (IOException e) {
       return ResponseEntity.internalServerError().body("Payment capture failed");
     }
   }
 
+  // PayPal passes the order id as token, which releases the reserved stock
   @GetMapping("/cancel")
-  public ResponseEntity<?> cancelPay() {
+  public ResponseEntity<?> cancelPay(@RequestParam(value = "token", required = false) String token) {
+    if (token != null) {
+      service.cancelPayment(token);
+    }
     return ResponseEntity.ok("Payment cancelled");
   }
 }
\ No newline at end of file
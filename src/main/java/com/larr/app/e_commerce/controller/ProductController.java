@@ -1,8 +1,16 @@
 package com.larr.app.e_commerce.controller;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.Locale;
 import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
 
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -10,12 +18,27 @@ import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.larr.app.e_commerce.dto.ProductImportResult;
+import com.larr.app.e_commerce.dto.ProductPage;
 import com.larr.app.e_commerce.dto.ProductUpdateRequest;
-import com.larr.app.e_commerce.model.Category;
 import com.larr.app.e_commerce.model.Product;
+import com.larr.app.e_commerce.service.CatalogSnapshots;
+import com.larr.app.e_commerce.service.CatalogVersion;
 import com.larr.app.e_commerce.service.CategoryService;
+import com.larr.app.e_commerce.service.ProductExportService;
+import com.larr.app.e_commerce.service.ProductImportService;
 import com.larr.app.e_commerce.service.ProductService;
+import com.larr.app.e_commerce.service.feed.ProductChangeFeed;
+
+import jakarta.servlet.http.HttpServletRequest;
 
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -23,16 +46,31 @@ import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 
 @RestController
 @RequestMapping(value = "/api/products")
 public class ProductController {
   private final ProductService service;
   private final CategoryService categoryService;
+  private final ProductImportService importService;
+  private final ProductExportService exportService;
+  private final CatalogVersion catalogVersion;
+  private final CatalogSnapshots catalogSnapshots;
+  private final ProductChangeFeed changeFeed;
+  private final ObjectMapper objectMapper;
 
-  public ProductController(ProductService service, CategoryService categoryService) {
+  public ProductController(ProductService service, CategoryService categoryService,
+      ProductImportService importService, ProductExportService exportService, CatalogVersion catalogVersion,
+      CatalogSnapshots catalogSnapshots, ProductChangeFeed changeFeed, ObjectMapper objectMapper) {
     this.service = service;
     this.categoryService = categoryService;
+    this.importService = importService;
+    this.exportService = exportService;
+    this.catalogVersion = catalogVersion;
+    this.catalogSnapshots = catalogSnapshots;
+    this.changeFeed = changeFeed;
+    this.objectMapper = objectMapper;
   }
 
   @PostMapping(value = "/save", consumes = MediaType.APPLICATION_JSON_VALUE)
@@ -47,9 +85,49 @@ public class ProductController {
     }
   }
 
+  // Accepts a JSON array or one product per line (NDJSON)
+  @PreAuthorize("hasRole('ADMIN')")
+  @PostMapping(value = "/import", consumes = { MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE })
+  public ResponseEntity<?> importProducts(HttpServletRequest request) throws IOException {
+    ProductImportResult result = importService.importProducts(request.getInputStream());
+    if (result.error() != null) {
+      return ResponseEntity.badRequest().body(result);
+    }
+    return ResponseEntity.ok(result);
+  }
+
+  // Full active catalog with category names, one product per line
+  @PreAuthorize("hasRole('ADMIN')")
+  @GetMapping("/export")
+  public ResponseEntity<?> exportProducts(@RequestParam(defaultValue = "ndjson") String format) {
+    ProductExportService.Format exportFormat;
+    MediaType contentType;
+    if (format.equalsIgnoreCase("csv")) {
+      exportFormat = ProductExportService.Format.CSV;
+      contentType = new MediaType("text", "csv", StandardCharsets.UTF_8);
+    } else if (format.equalsIgnoreCase("ndjson")) {
+      exportFormat = ProductExportService.Format.NDJSON;
+      contentType = MediaType.APPLICATION_NDJSON;
+    } else {
+      return new ResponseEntity<>("Unsupported export format: " + format, HttpStatus.BAD_REQUEST);
+    }
+
+    StreamingResponseBody body = out -> exportService.export(exportFormat, out);
+    return ResponseEntity.ok().contentType(contentType)
+        .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+            .filename("catalog." + exportFormat.name().toLowerCase(Locale.ROOT)).build().toString())
+        .body(body);
+  }
+
   @GetMapping("/{id}")
-  public ResponseEntity<?> findProduct(@PathVariable String id) {
-    return findProductByIdAndProceed(id, ResponseEntity::ok);
+  public ResponseEntity<?> findProduct(@PathVariable String id, WebRequest request) {
+    return findProductByIdAndProceed(id, product -> {
+      service.recordProductView(product);
+      if (request.checkNotModified(CatalogVersion.eTag(product))) {
+        return null;
+      }
+      return ResponseEntity.ok(product);
+    });
   }
 
   @DeleteMapping("/{id}/delete")
@@ -75,65 +153,155 @@ public class ProductController {
       if (request.getQuantity() == null || request.getQuantity() <= 0) {
         return new ResponseEntity<>("Quantity to decrease must be positive", HttpStatus.BAD_REQUEST);
       }
-      if (product.getQuantity() >= request.getQuantity()) {
-        return ResponseEntity.ok(service.decreaseProductQuantity(product, request.getQuantity()));
+      Product updated = service.decreaseProductQuantity(product, request.getQuantity());
+      if (updated != null) {
+        return ResponseEntity.ok(updated);
       } else {
         return new ResponseEntity<>("Cannot decrease. Not enough in stock", HttpStatus.CONFLICT);
       }
     });
   }
 
+  // Flash sale mode: stock for this product is reserved in memory and
+  // written to the database in batches
+  @PreAuthorize("hasRole('ADMIN')")
+  @PostMapping("/{id}/hot")
+  public ResponseEntity<?> enableHotStock(@PathVariable String id) {
+    return findProductByIdAndProceed(id, product -> {
+      if (!service.isHotStockEnabled()) {
+        return new ResponseEntity<>("Hot stock mode is disabled", HttpStatus.BAD_REQUEST);
+      }
+      service.enableHotStock(product);
+      return ResponseEntity.ok("Product " + id + " is now in hot stock mode");
+    });
+  }
+
+  @PreAuthorize("hasRole('ADMIN')")
+  @DeleteMapping("/{id}/hot")
+  public ResponseEntity<?> disableHotStock(@PathVariable String id) {
+    return findProductByIdAndProceed(id, product -> {
+      service.disableHotStock(product);
+      return ResponseEntity.ok("Product " + id + " is back to database stock");
+    });
+  }
+
+  // Updates any subset of name, description, price, image and stock (added).
+  // This and the single-field PATCHes below need the product ETag in If-Match
+  @PreAuthorize("hasRole('ADMIN')")
+  @PatchMapping("/{id}")
+  public ResponseEntity<?> updateProduct(@PathVariable String id, @RequestBody ProductUpdateRequest request,
+      @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+    Long version = RowVersions.fromIfMatch(ifMatch);
+    if (version == null) {
+      return RowVersions.ifMatchRequired();
+    }
+    return findProductByIdAndProceed(id, product -> {
+      if (request.getName() == null && request.getDescription() == null && request.getPrice() == null
+          && request.getImageUrl() == null && request.getQuantity() == null) {
+        return new ResponseEntity<>("Nothing to update", HttpStatus.BAD_REQUEST);
+      }
+      if (request.getName() != null && request.getName().isBlank()) {
+        return new ResponseEntity<>("Product name cannot be empty.", HttpStatus.BAD_REQUEST);
+      }
+      if (request.getPrice() != null && request.getPrice() < 0) {
+        return new ResponseEntity<>("Price cannot be negative.", HttpStatus.BAD_REQUEST);
+      }
+      if (request.getQuantity() != null && request.getQuantity() <= 0) {
+        return new ResponseEntity<>("Quantity to increase must be positive", HttpStatus.BAD_REQUEST);
+      }
+      return updated(service.updateProduct(product, version, request));
+    });
+  }
+
   @PreAuthorize("hasRole('ADMIN')")
   @PatchMapping("/{id}/name")
   public ResponseEntity<?> updateProductName(@PathVariable String id,
-      @RequestBody ProductUpdateRequest request) {
+      @RequestBody ProductUpdateRequest request,
+      @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+    Long version = RowVersions.fromIfMatch(ifMatch);
+    if (version == null) {
+      return RowVersions.ifMatchRequired();
+    }
     return findProductByIdAndProceed(id, product -> {
       if (request.getName() == null || request.getName().isBlank()) {
         return new ResponseEntity<>("Product name cannot be empty.", HttpStatus.BAD_REQUEST);
       }
-      return ResponseEntity.ok(service.updateProductName(product, request.getName()));
+      return updated(service.updateProductName(product, version, request.getName()));
     });
   }
 
   @PreAuthorize("hasRole('ADMIN')")
   @PatchMapping(value = "/{id}/price")
   public ResponseEntity<?> updateProductPrice(@PathVariable String id,
-      @RequestBody ProductUpdateRequest request) {
+      @RequestBody ProductUpdateRequest request,
+      @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+    Long version = RowVersions.fromIfMatch(ifMatch);
+    if (version == null) {
+      return RowVersions.ifMatchRequired();
+    }
     return findProductByIdAndProceed(id, product -> {
       if (request.getPrice() == null || request.getPrice() < 0) {
         return new ResponseEntity<>("Price cannot be negative.", HttpStatus.BAD_REQUEST);
       }
-      return ResponseEntity.ok(service.updateProductPrice(product, request.getPrice()));
+      return updated(service.updateProductPrice(product, version, request.getPrice()));
     });
   }
 
   @PreAuthorize("hasRole('ADMIN')")
   @PatchMapping("/{id}/image")
   public ResponseEntity<?> updateProductImageUrl(@PathVariable String id,
-      @RequestBody ProductUpdateRequest request) {
+      @RequestBody ProductUpdateRequest request,
+      @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+    Long version = RowVersions.fromIfMatch(ifMatch);
+    if (version == null) {
+      return RowVersions.ifMatchRequired();
+    }
     return findProductByIdAndProceed(id,
-        product -> ResponseEntity.ok(service.updateProductImageUrl(product, request.getImageUrl())));
+        product -> updated(service.updateProductImageUrl(product, version, request.getImageUrl())));
   }
 
   @GetMapping("/by-category")
-  public ResponseEntity<?> findProductsByCategory(@RequestParam String category) {
-    Category productCategory = categoryService.findCategoryByName(category);
-    if (productCategory != null) {
-      List<Product> products = service.findProductsByCategory(productCategory);
-      if (products != null && !products.isEmpty()) {
-        return ResponseEntity.ok(products);
-      } else {
-        return new ResponseEntity<>("No products found for the given category", HttpStatus.NOT_FOUND);
-      }
+  public ResponseEntity<?> findProductsByCategory(@RequestParam String category,
+      @RequestParam(required = false) String after, @RequestParam(required = false) Integer size,
+      WebRequest request) {
+    if (request.checkNotModified(catalogVersion.eTag())) {
+      return null;
+    }
+    ProductPage page = service.findProductsByCategory(category, after, size);
+    if (!page.products().isEmpty() || after != null) {
+      return ResponseEntity.ok(page);
+    }
+
+    // Only an empty first page needs to know whether the category exists
+    if (categoryService.findCategoryByName(category) != null) {
+      return new ResponseEntity<>("No products found for the given category", HttpStatus.NOT_FOUND);
     } else {
       return new ResponseEntity<>("Category " + category + " not found", HttpStatus.NOT_FOUND);
     }
+  }
+
+  // Server-sent events of committed product changes. Resumes after ?since= or
+  // the Last-Event-ID header that EventSource sends when it reconnects
+  @GetMapping(value = "/changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  public SseEmitter subscribeToChanges(@RequestParam(required = false) Long since,
+      @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId) {
+    return changeFeed.subscribe(since != null ? since : lastEventId);
+  }
 
+  @GetMapping("/suggest")
+  public ResponseEntity<?> suggestProducts(@RequestParam String prefix,
+      @RequestParam(required = false) Integer limit) {
+    return ResponseEntity.ok(service.suggestProducts(prefix, limit));
   }
 
+  // mode=fuzzy also finds misspelled names
   @GetMapping("/by-name")
-  public ResponseEntity<?> findProductsByName(@RequestParam String name) {
-    List<Product> products = service.findProductsByName(name);
+  public ResponseEntity<?> findProductsByName(@RequestParam String name,
+      @RequestParam(defaultValue = "exact") String mode) {
+    if (!mode.equalsIgnoreCase("exact") && !mode.equalsIgnoreCase("fuzzy")) {
+      return new ResponseEntity<>("Unsupported search mode: " + mode, HttpStatus.BAD_REQUEST);
+    }
+    List<Product> products = service.findProductsByName(name, mode.equalsIgnoreCase("fuzzy"));
     if (products == null || products.isEmpty()) {
       return new ResponseEntity<>("No product match", HttpStatus.NOT_FOUND);
     } else {
@@ -141,14 +309,90 @@ public class ProductController {
     }
   }
 
+  // active=false lists deactivated products, for admins only; leaving it out
+  // lists active ones
+  @GetMapping("/facets")
+  public ResponseEntity<?> findProductFacets(@RequestParam(required = false) Double minPrice,
+      @RequestParam(required = false) Double maxPrice, @RequestParam(required = false) String category,
+      @RequestParam(required = false) Boolean inStock, @RequestParam(required = false) Boolean active,
+      @RequestParam(required = false) Integer page, @RequestParam(required = false) Integer size,
+      HttpServletRequest servletRequest, WebRequest request) {
+    if (Boolean.FALSE.equals(active) && !servletRequest.isUserInRole("ADMIN")) {
+      return new ResponseEntity<>("Only admins can list deactivated products", HttpStatus.FORBIDDEN);
+    }
+    if (request.checkNotModified(catalogVersion.eTag())) {
+      return null;
+    }
+    return ResponseEntity.ok(service.findProductFacets(minPrice, maxPrice, category, inStock, active, page, size));
+  }
+
   @GetMapping("/all")
-  public ResponseEntity<?> findProducts() {
-    List<Product> products = service.findAllProducts();
-    if (products == null || products.isEmpty()) {
+  public ResponseEntity<?> findProducts(@RequestParam(required = false) String after,
+      @RequestParam(required = false) Integer size, WebRequest request) {
+    if (request.checkNotModified(catalogVersion.eTag())) {
+      return null;
+    }
+    ProductPage page = service.findProductPage(after, size);
+    if (after == null && page.products().isEmpty()) {
       return new ResponseEntity<>("No product match", HttpStatus.NOT_FOUND);
     } else {
-      return ResponseEntity.ok(products);
+      return ResponseEntity.ok(page);
+    }
+  }
+
+  // Writes the whole active catalog as a JSON array while the rows are read
+  @GetMapping(value = "/all", params = "stream=true")
+  public ResponseEntity<StreamingResponseBody> streamProducts(WebRequest request) {
+    if (request.checkNotModified(catalogVersion.eTag())) {
+      return null;
+    }
+    ObjectWriter writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    StreamingResponseBody body = out -> {
+      try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+        generator.writeStartArray();
+        service.streamActiveProducts(product -> {
+          try {
+            writer.writeValue(generator, product);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+        generator.writeEndArray();
+      }
+    };
+    return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+  }
+
+  // The active catalog, or one category of it, as a pre-rendered JSON array.
+  // The stored gzip bytes are sent as they are to clients that accept gzip
+  @GetMapping("/catalog")
+  public ResponseEntity<?> findCatalogSnapshot(@RequestParam(required = false) String category,
+      @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+      WebRequest request) {
+    CatalogSnapshots.Snapshot snapshot = category == null ? catalogSnapshots.catalog()
+        : catalogSnapshots.category(category);
+    if (snapshot == null) {
+      return new ResponseEntity<>("Category " + category + " not found", HttpStatus.NOT_FOUND);
     }
+    if (request.checkNotModified(snapshot.eTag())) {
+      return null;
+    }
+
+    ResponseEntity.BodyBuilder response = ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON)
+        .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+    if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+      return response.header(HttpHeaders.CONTENT_ENCODING, "gzip").body(snapshot.gzip());
+    }
+    StreamingResponseBody body = out -> {
+      try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(snapshot.gzip()))) {
+        in.transferTo(out);
+      }
+    };
+    return response.body(body);
+  }
+
+  private static ResponseEntity<?> updated(Product product) {
+    return ResponseEntity.ok().eTag(CatalogVersion.eTag(product)).body(product);
   }
 
   private ResponseEntity<?> findProductByIdAndProceed(String id, Function<Product, ResponseEntity<?>> action) {
@@ -0,0 +1,38 @@
+package com.larr.app.e_commerce.controller;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+// The ETag of a single product, cart or cart item is its row version. Writes
+// that replace values send it back in If-Match, so a change made since the
+// client last read the row is refused instead of overwritten
+final class RowVersions {
+
+  private RowVersions() {
+  }
+
+  static String eTag(long version) {
+    return "\"" + version + "\"";
+  }
+
+  // Null when the header is missing or does not hold a row version
+  static Long fromIfMatch(String ifMatch) {
+    if (ifMatch == null) {
+      return null;
+    }
+    String tag = ifMatch.trim();
+    if (tag.length() < 3 || tag.charAt(0) != '"' || tag.charAt(tag.length() - 1) != '"') {
+      return null;
+    }
+    try {
+      return Long.valueOf(tag.substring(1, tag.length() - 1));
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  static ResponseEntity<?> ifMatchRequired() {
+    return new ResponseEntity<>("Send the ETag of the version being changed in If-Match",
+        HttpStatus.PRECONDITION_REQUIRED);
+  }
+}
@@ -11,9 +11,11 @@ import org.springframework.web.bind.annotation.RestController;
 
 import com.larr.app.e_commerce.dto.CreatePaymentRequest;
 import com.larr.app.e_commerce.dto.PaymentResponse;
+import com.larr.app.e_commerce.dto.StockReservationResult;
 import com.larr.app.e_commerce.model.Cart;
 import com.larr.app.e_commerce.model.User;
 import com.larr.app.e_commerce.security.service.CartService;
+import com.larr.app.e_commerce.service.CheckoutService;
 import com.larr.app.e_commerce.service.StripeService;
 import com.larr.app.e_commerce.service.UserService;
 import com.stripe.model.PaymentIntent;
@@ -27,6 +29,7 @@ public class StripeController {
   private final StripeService service;
   private final CartService cartService;
   private final UserService userService;
+  private final CheckoutService checkoutService;
 
   @PostMapping("/create")
   public ResponseEntity<?> createPayment(@RequestBody CreatePaymentRequest request) {
@@ -37,8 +40,18 @@ public class StripeController {
       User user = userService.getUser(userDetails.getUsername())
           .orElseThrow(() -> new RuntimeException("User not found"));
       Cart cart = cartService.findCart(request.cartId());
+      StockReservationResult reservation = checkoutService.reserve(cart);
+      if (reservation == null || reservation.reservation() == null) {
+        return CartController.checkoutResponse(reservation);
+      }
       Double amount = cart.getTotalprice();
-      PaymentIntent intent = service.createPaymentIntent(amount, request.currency(), user, cart);
+      PaymentIntent intent;
+      try {
+        intent = service.createPaymentIntent(amount, request.currency(), user, cart, reservation.reservation());
+      } catch (Exception e) {
+        checkoutService.release(reservation);
+        throw e;
+      }
       return ResponseEntity.ok(new PaymentResponse(intent.getClientSecret(), intent.getId(), intent.getStatus()));
     } catch (Exception e) {
       return ResponseEntity.badRequest().body("Error: " + e.getMessage());
@@ -36,7 +36,9 @@ public class StripeWebhookController {
       service.confirmPayment(intent);
     }
 
-    if ("payment_intent.failed".equals(event.getType())) {
+    // Either way the stock reserved for the cart goes back
+    if ("payment_intent.payment_failed".equals(event.getType())
+        || "payment_intent.canceled".equals(event.getType())) {
       PaymentIntent intent = (PaymentIntent) event.getDataObjectDeserializer().getObject().get();
       service.handleFailedPayment(intent);
     }
@@ -0,0 +1,4 @@
+package com.larr.app.e_commerce.dto;
+
+public record CartItemBatchEntry(String productId, int quantity) {
+}
@@ -0,0 +1,12 @@
+package com.larr.app.e_commerce.dto;
+
+import java.util.List;
+
+import com.larr.app.e_commerce.model.CartItem;
+
+/**
+ * Outcome of a batch add: the items and total of the cart afterwards, or the
+ * products that could not be found, in which case nothing was written.
+ */
+public record CartItemBatchResult(List<CartItem> items, double totalprice, List<String> unknownProducts) {
+}
@@ -0,0 +1,21 @@
+package com.larr.app.e_commerce.dto;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import com.larr.app.e_commerce.model.CartStatus;
+
+/**
+ * Everything needed to render a cart: the header, its items and just enough of
+ * each product to show it, read in one query.
+ */
+public record CartSummary(String id, CartStatus status, double totalprice, LocalDateTime updatedAt,
+    List<Item> items) {
+
+  public record Item(String id, int quantity, double price, double subtotal, ItemProduct product) {
+  }
+
+  // Price is the item's; available is the product's current stock
+  public record ItemProduct(String id, String name, String imgUrl, int available, boolean active) {
+  }
+}
@@ -0,0 +1,14 @@
+package com.larr.app.e_commerce.dto;
+
+import java.time.LocalDateTime;
+
+import com.larr.app.e_commerce.model.CartStatus;
+
+/**
+ * One row of the cart summary query: the cart header repeated next to one of
+ * its items, or with null item columns when the cart is empty.
+ */
+public record CartSummaryRow(String cartId, CartStatus status, double totalprice, LocalDateTime updatedAt,
+    String itemId, Integer quantity, Double price, Double subtotal, String productId, String productName,
+    String productImgUrl, Integer productQuantity, Boolean productActive) {
+}
@@ -6,5 +6,4 @@ import com.larr.app.e_commerce.model.CartStatus;
 @Data
 public class CartUpdateRequest {
   private CartStatus status;
-  private double totalprice;
 }
@@ -0,0 +1,9 @@
+package com.larr.app.e_commerce.dto;
+
+/**
+ * One entry of the product change feed: what changed and the product's state
+ * right after the change, enough for a cache to update or drop its copy.
+ */
+public record ProductChange(long sequence, String change, String productId, String name, double price,
+    int quantity, String imgUrl, String categoryId, boolean active) {
+}
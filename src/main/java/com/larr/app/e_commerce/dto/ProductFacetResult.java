@@ -0,0 +1,15 @@
+package com.larr.app.e_commerce.dto;
+
+import java.util.List;
+import java.util.Map;
+
+import com.larr.app.e_commerce.model.Product;
+
+/**
+ * One page of filtered products with the facet counts of the whole result.
+ * Each facet is counted with every filter applied except its own, so the
+ * counts say how many products picking that value would return.
+ */
+public record ProductFacetResult(int total, List<Product> products, Map<String, Integer> categories,
+    Map<String, Integer> priceBands, int inStock, int outOfStock) {
+}
@@ -0,0 +1,12 @@
+package com.larr.app.e_commerce.dto;
+
+public record ProductImportOutcome(int row, String name, String status, String id, String message) {
+
+  public static ProductImportOutcome created(int row, String name, String id) {
+    return new ProductImportOutcome(row, name, "created", id, null);
+  }
+
+  public static ProductImportOutcome rejected(int row, String name, String message) {
+    return new ProductImportOutcome(row, name, "rejected", null, message);
+  }
+}
@@ -0,0 +1,7 @@
+package com.larr.app.e_commerce.dto;
+
+import java.util.List;
+
+public record ProductImportResult(int total, int created, int rejected, long elapsedMs, double rowsPerSecond,
+    String error, List<ProductImportOutcome> rows) {
+}
@@ -0,0 +1,7 @@
+package com.larr.app.e_commerce.dto;
+
+import java.util.List;
+
+
+public record ProductPage(List<ProductSummary> products, String nextCursor) {
+}
@@ -0,0 +1,9 @@
+package com.larr.app.e_commerce.dto;
+
+/**
+ * Read-only view of a product for catalog listings, selected column by column
+ * together with its category so no entity is hydrated or managed.
+ */
+public record ProductSummary(String id, String name, String description, double price, int quantity,
+    String imgUrl, String categoryId, String categoryName) {
+}
@@ -5,6 +5,7 @@ import lombok.Data;
 @Data
 public class ProductUpdateRequest {
   private String name;
+  private String description;
   private Double price;
   private String imageUrl;
   private Integer quantity;
@@ -0,0 +1,36 @@
+package com.larr.app.e_commerce.dto;
+
+import java.util.List;
+
+import com.larr.app.e_commerce.model.StockReservation;
+
+/**
+ * Outcome of a checkout: the reservation holding the stock of the cart, or why
+ * nothing was reserved. The products are the ones that did not have enough,
+ * or whose quantity in the cart is not positive. Created says whether this
+ * checkout made the reservation, rather than reusing one held by an earlier
+ * attempt.
+ */
+public record StockReservationResult(StockReservation reservation, List<String> products, Refusal refusal,
+    boolean created) {
+
+  public enum Refusal {
+    OUT_OF_STOCK, INVALID_QUANTITY, INACTIVE_CART
+  }
+
+  public StockReservationResult(StockReservation reservation, List<String> unavailableProducts) {
+    this(reservation, unavailableProducts, reservation == null ? Refusal.OUT_OF_STOCK : null, false);
+  }
+
+  public static StockReservationResult created(StockReservation reservation) {
+    return new StockReservationResult(reservation, List.of(), null, true);
+  }
+
+  public static StockReservationResult invalidQuantities(List<String> products) {
+    return new StockReservationResult(null, products, Refusal.INVALID_QUANTITY, false);
+  }
+
+  public static StockReservationResult inactiveCart() {
+    return new StockReservationResult(null, List.of(), Refusal.INACTIVE_CART, false);
+  }
+}
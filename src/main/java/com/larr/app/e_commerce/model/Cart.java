@@ -13,15 +13,19 @@ import jakarta.persistence.Enumerated;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.Table;
+import jakarta.persistence.Version;
 import lombok.Data;
 
 @Entity
 @EntityListeners(org.springframework.data.jpa.domain.support.AuditingEntityListener.class)
 @Data
-@Table(name = "carts")
+@Table(name = "carts", indexes = {
+        @Index(name = "idx_carts_user_status", columnList = "user_id, status"),
+        @Index(name = "idx_carts_status_updated", columnList = "status, updated_at") })
 public class Cart {
     @Id
     @GeneratedValue(strategy = GenerationType.UUID)
@@ -39,4 +43,7 @@ public class Cart {
     @ManyToOne
     @JoinColumn(name = "user_id")
     private User user;
+    // Bumped by every write, including the total updates of CartRepository
+    @Version
+    private long version;
 }
@@ -9,13 +9,16 @@ import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
-import jakarta.persistence.OneToOne;
 import jakarta.persistence.PrePersist;
 import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+import jakarta.persistence.Version;
 import lombok.Data;
 
 @Entity
-@Table(name = "cart_items")
+// One row per product and cart; adding a product again adds to its quantity
+@Table(name = "cart_items", uniqueConstraints = @UniqueConstraint(name = "uk_cart_items_cart_product",
+        columnNames = { "cart_id", "product_id" }))
 @Data
 public class CartItem {
     @Id
@@ -24,7 +27,7 @@ public class CartItem {
     @ManyToOne
     @JoinColumn(name = "cart_id")
     private Cart cart;
-    @OneToOne
+    @ManyToOne
     @JoinColumn(name = "product_id")
     private Product product;
     private int quantity;
@@ -32,6 +35,9 @@ public class CartItem {
     private double subtotal;
     @Column(updatable = false, name = "added_at")
     private LocalDateTime addedAt;
+    // Bumped by every write, including the upserts of CartItemService
+    @Version
+    private long version;
 
     @PrePersist
     protected void onCreate() {
@@ -0,0 +1,32 @@
+package com.larr.app.e_commerce.model;
+
+import java.time.LocalDateTime;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Marks a hot stock journal segment as applied to the products table. It is
+ * written in the same transaction as the stock update, so replaying a segment
+ * after a crash never applies it twice, and dropped once the segment file is
+ * deleted.
+ */
+@Data
+@NoArgsConstructor
+@Entity
+@Table(name = "hot_stock_flushes")
+public class HotStockFlush {
+    @Id
+    private Long segment;
+    @Column(name = "flushed_at")
+    private LocalDateTime flushedAt;
+
+    public HotStockFlush(Long segment) {
+        this.segment = segment;
+        this.flushedAt = LocalDateTime.now();
+    }
+}
@@ -42,6 +42,13 @@ public class Payment {
     private String transactionId;
     @Column(name = "provider_response", columnDefinition = "TEXT")
     private String providerResponse;
+    // The stock held for this payment; the payments of a retried checkout share it
+    @ManyToOne
+    @JoinColumn(name = "reservation_id")
+    private StockReservation reservation;
+    // Completed after its stock went back, when that stock could not be taken
+    // again: the order needs a refund or a restock
+    private boolean oversold;
     @CreatedDate
     @Column(name = "created_at", updatable = false)
     private LocalDateTime createdAt;
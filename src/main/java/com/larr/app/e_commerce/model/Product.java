@@ -1,18 +1,23 @@
 package com.larr.app.e_commerce.model;
 
+import org.hibernate.annotations.DynamicUpdate;
+
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.Table;
+import jakarta.persistence.Version;
 import lombok.Data;
 
 @Data
 @Entity
-@Table(name = "products")
+@DynamicUpdate
+@Table(name = "products", indexes = @Index(name = "idx_products_category_active", columnList = "category_id, is_active"))
 public class Product {
     @Id
     @GeneratedValue(strategy = GenerationType.UUID)
@@ -28,4 +33,7 @@ public class Product {
     private String imgUrl;
     @Column(name = "is_active")
     private boolean isActive = true;
+    // Bumped by every write, including the bulk stock updates
+    @Version
+    private long version;
 }
@@ -0,0 +1,5 @@
+package com.larr.app.e_commerce.model;
+
+public enum ReservationStatus {
+    held, confirmed, released
+}
@@ -0,0 +1,17 @@
+package com.larr.app.e_commerce.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Embeddable;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Embeddable
+public class StockReservationLine {
+    @Column(name = "product_id")
+    private String productId;
+    private int quantity;
+}
@@ -1,8 +1,10 @@
 package com.larr.app.e_commerce.repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
@@ -11,6 +13,7 @@ import org.springframework.stereotype.Repository;
 
 import com.larr.app.e_commerce.model.Cart;
 import com.larr.app.e_commerce.model.CartItem;
+import com.larr.app.e_commerce.model.CartStatus;
 
 @Repository
 public interface CartItemRepository extends JpaRepository<CartItem, String> {
@@ -18,7 +21,21 @@ public interface CartItemRepository extends JpaRepository<CartItem, String> {
 
   Optional<CartItem> findByIdAndCartId(String id, String cartId);
 
+  Optional<CartItem> findByCartIdAndProductId(String cartId, String productId);
+
+  List<CartItem> findByCartIdAndProductIdIn(String cartId, Collection<String> productIds);
+
   @Modifying
   @Query("delete from CartItem c where c.cart.id = :id")
   void deleteByCart(@Param("id") String cartId);
+
+  @Query("SELECT i.id FROM CartItem i WHERE i.cart.status = :status")
+  List<String> findIdsByCartStatus(@Param("status") CartStatus status, Pageable page);
+
+  @Query("SELECT DISTINCT i.cart.id FROM CartItem i WHERE i.id IN :ids")
+  List<String> findCartIdsByIds(@Param("ids") Collection<String> ids);
+
+  @Modifying
+  @Query("DELETE FROM CartItem i WHERE i.id IN :ids")
+  int deleteByIds(@Param("ids") Collection<String> ids);
 }
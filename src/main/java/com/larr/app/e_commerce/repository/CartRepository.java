@@ -1,11 +1,18 @@
 package com.larr.app.e_commerce.repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import com.larr.app.e_commerce.dto.CartSummaryRow;
 import com.larr.app.e_commerce.model.Cart;
 import com.larr.app.e_commerce.model.CartStatus;
 
@@ -16,4 +23,46 @@ public interface CartRepository extends JpaRepository<Cart, String> {
     Optional<Cart> findCartByUserIdAndStatus(String userId, CartStatus status);
 
     List<Cart> findByUserId(String userId);
+
+    // Cart, items and products in one statement however many items there are
+    @Query("SELECT new com.larr.app.e_commerce.dto.CartSummaryRow(c.id, c.status, c.totalprice, c.updatedAt, "
+            + "i.id, i.quantity, i.price, i.subtotal, p.id, p.name, p.imgUrl, p.quantity, p.isActive) "
+            + "FROM Cart c LEFT JOIN CartItem i ON i.cart = c LEFT JOIN i.product p "
+            + "WHERE c.id = :id ORDER BY i.addedAt, i.id")
+    List<CartSummaryRow> findSummaryRows(@Param("id") String id);
+
+    // Applied in the transaction of the item change, as one atomic increment so
+    // concurrent item changes cannot lose each other's delta. Flushes first
+    // because clearing drops pending inserts
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Cart c SET c.totalprice = c.totalprice + :delta, c.updatedAt = :now, "
+            + "c.version = c.version + 1 WHERE c.id = :id")
+    int addToTotal(@Param("id") String id, @Param("delta") double delta, @Param("now") LocalDateTime now);
+
+    // Repair only: sums every item of the cart
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Cart c SET c.totalprice = COALESCE((SELECT SUM(i.subtotal) FROM CartItem i "
+            + "WHERE i.cart.id = :id), 0), c.updatedAt = :now, c.version = c.version + 1 WHERE c.id = :id")
+    int recomputeTotal(@Param("id") String id, @Param("now") LocalDateTime now);
+
+    // Oldest first, served by the (status, updated_at) index
+    @Query("SELECT c.id FROM Cart c WHERE c.status = :status AND c.updatedAt < :cutoff ORDER BY c.updatedAt")
+    List<String> findIdleIds(@Param("status") CartStatus status, @Param("cutoff") LocalDateTime cutoff,
+            Pageable page);
+
+    // Checks idleness again, so a cart touched since it was selected stays active.
+    // The total goes with the items, which are purged next
+    @Modifying
+    @Query("UPDATE Cart c SET c.status = com.larr.app.e_commerce.model.CartStatus.abandoned, c.totalprice = 0, "
+            + "c.updatedAt = :now, c.version = c.version + 1 WHERE c.id IN :ids "
+            + "AND c.status = com.larr.app.e_commerce.model.CartStatus.active AND c.updatedAt < :cutoff")
+    int markAbandoned(@Param("ids") Collection<String> ids, @Param("cutoff") LocalDateTime cutoff,
+            @Param("now") LocalDateTime now);
+
+    // Carts abandoned through the API keep their total until their items are
+    // purged, in the same transaction
+    @Modifying
+    @Query("UPDATE Cart c SET c.totalprice = 0, c.version = c.version + 1 WHERE c.id IN :ids "
+            + "AND c.status = com.larr.app.e_commerce.model.CartStatus.abandoned AND c.totalprice <> 0")
+    int clearAbandonedTotals(@Param("ids") Collection<String> ids);
 }
@@ -0,0 +1,19 @@
+package com.larr.app.e_commerce.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import com.larr.app.e_commerce.model.HotStockFlush;
+
+@Repository
+public interface HotStockFlushRepository extends JpaRepository<HotStockFlush, Long> {
+    @Query("SELECT MAX(f.segment) FROM HotStockFlush f")
+    Long findLastSegment();
+
+    @Modifying
+    @Query("DELETE FROM HotStockFlush f WHERE f.segment < :segment")
+    void deleteBefore(@Param("segment") Long segment);
+}
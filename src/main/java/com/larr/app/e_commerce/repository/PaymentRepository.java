@@ -1,12 +1,38 @@
 package com.larr.app.e_commerce.repository;
 
+import java.util.List;
+import java.util.Optional;
+
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import com.larr.app.e_commerce.model.Payment;
-import java.util.Optional;
+import com.larr.app.e_commerce.model.PaymentStatus;
+import com.larr.app.e_commerce.model.StockReservation;
 
 @Repository
 public interface PaymentRepository extends JpaRepository<Payment, String> {
   Optional<Payment> findByTransactionId(String transactionId);
+
+  List<Payment> findByReservationIdAndMethodAndStatus(String reservationId, String method, PaymentStatus status);
+
+  // Leaves a payment that moved on meanwhile, such as one completed since it was read
+  @Transactional
+  @Modifying
+  @Query("UPDATE Payment p SET p.status = :to WHERE p.id = :id AND p.status = :from")
+  int transition(@Param("id") String id, @Param("from") PaymentStatus from, @Param("to") PaymentStatus to);
+
+  // Only one caller moves a payment off the reservation it paid for
+  @Modifying
+  @Query("UPDATE Payment p SET p.reservation = :to WHERE p.id = :id AND p.reservation = :from")
+  int moveReservation(@Param("id") String id, @Param("from") StockReservation from,
+      @Param("to") StockReservation to);
+
+  @Modifying
+  @Query("UPDATE Payment p SET p.oversold = true WHERE p.id = :id")
+  int markOversold(@Param("id") String id);
 }
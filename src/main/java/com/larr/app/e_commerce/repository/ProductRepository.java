@@ -1,17 +1,28 @@
 package com.larr.app.e_commerce.repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
 
 import com.larr.app.e_commerce.model.Category;
 
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import com.larr.app.e_commerce.dto.ProductSummary;
 import com.larr.app.e_commerce.model.Product;
 
+import jakarta.persistence.QueryHint;
+
 @Repository
 public interface ProductRepository extends JpaRepository<Product, String> {
     @Query("From Product p where p.isActive = true")
@@ -23,4 +34,64 @@ public interface ProductRepository extends JpaRepository<Product, String> {
 
     @Query("FROM Product p WHERE p.name = :name and p.isActive = true")
     Optional<Product> findProductByName(@Param("name") String name);
+
+    @Query("SELECT p.name FROM Product p WHERE p.isActive = true AND p.name IN :names")
+    Set<String> findActiveNamesIn(@Param("names") Collection<String> names);
+
+    // Keyset page: seeks past the last id of the previous page instead of
+    // using an OFFSET, so every page costs the same regardless of depth
+    @Query("SELECT new com.larr.app.e_commerce.dto.ProductSummary(p.id, p.name, p.description, p.price, "
+            + "p.quantity, p.imgUrl, c.id, c.name) FROM Product p LEFT JOIN p.category c "
+            + "WHERE p.isActive = true AND p.id > :after ORDER BY p.id")
+    List<ProductSummary> findActiveSummaryPage(@Param("after") String after, Limit limit);
+
+    // MySQL Connector/J only streams rows one by one when the fetch size is
+    // Integer.MIN_VALUE, otherwise the whole result set is buffered client side
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "" + Integer.MIN_VALUE))
+    @Query("SELECT new com.larr.app.e_commerce.dto.ProductSummary(p.id, p.name, p.description, p.price, "
+            + "p.quantity, p.imgUrl, c.id, c.name) FROM Product p LEFT JOIN p.category c "
+            + "WHERE p.isActive = true ORDER BY p.id")
+    Stream<ProductSummary> streamActiveSummaries();
+
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "" + Integer.MIN_VALUE))
+    @Query("FROM Product p LEFT JOIN FETCH p.category WHERE p.isActive = true ORDER BY p.id")
+    Stream<Product> streamAllActive();
+
+    // Inactive products included, for indexes that can filter on isActive
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "" + Integer.MIN_VALUE))
+    @Query("FROM Product p LEFT JOIN FETCH p.category ORDER BY p.id")
+    Stream<Product> streamAll();
+
+    // One round trip keyed on the category name; served by the
+    // (category_id, is_active) index, whose entries InnoDB keeps in id order
+    @Query("SELECT new com.larr.app.e_commerce.dto.ProductSummary(p.id, p.name, p.description, p.price, "
+            + "p.quantity, p.imgUrl, c.id, c.name) FROM Product p JOIN p.category c "
+            + "WHERE c.name = :category AND p.isActive = true AND p.id > :after ORDER BY p.id")
+    List<ProductSummary> findActiveSummaryPageByCategoryName(@Param("category") String category,
+            @Param("after") String after, Limit limit);
+
+    // Check and decrement happen in one statement, so concurrent checkouts
+    // cannot both pass the check; returns 0 when stock is insufficient
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE Product p SET p.quantity = p.quantity - :quantity, p.version = p.version + 1 "
+            + "WHERE p.id = :id AND p.quantity >= :quantity")
+    int decreaseQuantityIfAvailable(@Param("id") String id, @Param("quantity") int quantity);
+
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE Product p SET p.quantity = p.quantity + :quantity, p.version = p.version + 1 WHERE p.id = :id")
+    int increaseQuantity(@Param("id") String id, @Param("quantity") int quantity);
+
+    // Only for stock that has already been granted elsewhere, e.g. flushed
+    // hot stock reservations
+    @Modifying
+    @Query("UPDATE Product p SET p.quantity = p.quantity - :quantity, p.version = p.version + 1 WHERE p.id = :id")
+    int decreaseQuantity(@Param("id") String id, @Param("quantity") int quantity);
+
+    // A product is served with its category name, so renaming the category
+    // changes the product representation and has to change its ETag too
+    @Modifying
+    @Query("UPDATE Product p SET p.version = p.version + 1 WHERE p.category.id = :categoryId")
+    int bumpVersionsInCategory(@Param("categoryId") String categoryId);
 }
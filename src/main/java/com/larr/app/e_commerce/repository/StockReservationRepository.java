@@ -0,0 +1,28 @@
+package com.larr.app.e_commerce.repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import com.larr.app.e_commerce.model.ReservationStatus;
+import com.larr.app.e_commerce.model.StockReservation;
+
+@Repository
+public interface StockReservationRepository extends JpaRepository<StockReservation, String> {
+    List<StockReservation> findByCartIdAndStatus(String cartId, ReservationStatus status);
+
+    List<StockReservation> findByStatusAndExpiresAtBeforeOrderByExpiresAt(ReservationStatus status,
+            LocalDateTime now, Limit limit);
+
+    // Only one caller wins a transition, so stock is never released twice
+    @Modifying
+    @Query("UPDATE StockReservation r SET r.status = :to WHERE r.id = :id AND r.status = :from")
+    int transition(@Param("id") String id, @Param("from") ReservationStatus from,
+            @Param("to") ReservationStatus to);
+}
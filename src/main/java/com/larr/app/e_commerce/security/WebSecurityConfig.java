@@ -108,10 +108,13 @@ public class WebSecurityConfig {
         configuration.setAllowCredentials(true);
 
         // Allow common HTTP methods
-        configuration.setAllowedMethods(Arrays.asList("POST", "GET", "PUT", "DELETE", "OPTIONS"));
+        configuration.setAllowedMethods(Arrays.asList("POST", "GET", "PUT", "PATCH", "DELETE", "OPTIONS"));
 
         // Allow specific headers in requests
-        configuration.setAllowedHeaders(Arrays.asList("Authorization", "Content-Type", "Accept"));
+        configuration.setAllowedHeaders(Arrays.asList("Authorization", "Content-Type", "Accept", "If-None-Match", "If-Match", "Last-Event-ID"));
+
+        // Let the frontend read ETags to send them back as If-None-Match
+        configuration.setExposedHeaders(List.of("ETag"));
 
         // Apply the configuration to all paths
         UrlBasedCorsConfigurationSource source = new UrlBasedCorsConfigurationSource();
@@ -140,8 +143,11 @@ public class WebSecurityConfig {
                 // no HTTP session
                 .sessionManagement(session -> session.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
                 .authorizeHttpRequests(auth -> auth
-                        // Allow internal dispatcher types( error and forwared requests))
-                        .dispatcherTypeMatchers(DispatcherType.ERROR, DispatcherType.FORWARD).permitAll()
+                        // Allow internal dispatcher types( error and forwared requests, and async
+                        // dispatches of streamed responses that were already authorized: the
+                        // streamed listing, the catalog export and the change feed)
+                        .dispatcherTypeMatchers(DispatcherType.ERROR, DispatcherType.FORWARD,
+                                DispatcherType.ASYNC).permitAll()
                         // Allow public resources and routes
                         .requestMatchers("/", "/auth.html", "/reset-password.html",
                                 "/forgot-password.html", "/login**", "/home.html")
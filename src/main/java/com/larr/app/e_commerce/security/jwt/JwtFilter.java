@@ -71,10 +71,9 @@ public class JwtFilter extends OncePerRequestFilter {
             // Retrieve jwt token from the request
             String jwt = jwtUtils.getJwtFromCookie(request);
 
-            // Check if the token exist and is valid
-            if (jwt != null && jwtUtils.validateJwtToken(jwt)) {
-                // Extract user email from token
-                String userEmail = jwtUtils.getEmailFromJwtToken(jwt);
+            // Check if the token exist, then validate it and extract the user email in one parse
+            if (jwt != null) {
+                String userEmail = jwtUtils.getEmailFromValidJwtToken(jwt);
 
                 // Load user's full details from the database
                 UserDetails userDetails = userDetailsService.loadUserByUsername(userEmail);
@@ -10,6 +10,7 @@ import org.springframework.stereotype.Component;
 import org.springframework.web.util.WebUtils;
 
 import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.MalformedJwtException;
 import io.jsonwebtoken.UnsupportedJwtException;
@@ -20,21 +21,23 @@ import jakarta.servlet.http.HttpServletRequest;
 
 @Component
 public class JwtUtils {
-    @Value("${jwt.secret}")
-    private String jwtSecret;
+    private final int jwtExp;
 
-    @Value("${jwt.expirationsMs}")
-    private int jwtExp;
+    // Decoded and built once; the parser is immutable and shared by all
+    // request threads
+    private final SecretKey key;
+    private final JwtParser parser;
 
-    // Create a secret key for signing/verifying JWTs
-    private SecretKey Key() {
-        return Keys.hmacShaKeyFor(Decoders.BASE64.decode(jwtSecret));
+    public JwtUtils(@Value("${jwt.secret}") String jwtSecret, @Value("${jwt.expirationsMs}") int jwtExp) {
+        this.jwtExp = jwtExp;
+        this.key = Keys.hmacShaKeyFor(Decoders.BASE64.decode(jwtSecret));
+        this.parser = Jwts.parser().verifyWith(key).build();
     }
 
     // Create a signed JWT for a user
     public String generateJwtToken(String userEmail) {
         return Jwts.builder().subject(userEmail).issuedAt(new Date())
-                .expiration(new Date((new Date().getTime() + jwtExp))).signWith(Key()).compact();
+                .expiration(new Date((new Date().getTime() + jwtExp))).signWith(key).compact();
     }
 
     // Extracts JWT from incoming request
@@ -58,16 +61,10 @@ public class JwtUtils {
         return ResponseCookie.from("jwt", "").maxAge(0).httpOnly(true).secure(true).sameSite("Lax").build();
     }
 
-    // Extracts user email from a token
-    public String getEmailFromJwtToken(String token) {
-        return Jwts.parser().verifyWith(Key()).build().parseSignedClaims(token).getPayload().getSubject();
-    }
-
-    // Verifies token’s integrity and validity
-    public boolean validateJwtToken(String authToken) {
+    // Verifies the token and extracts the user email with a single parse
+    public String getEmailFromValidJwtToken(String authToken) {
         try {
-            Jwts.parser().verifyWith(Key()).build().parse(authToken);
-            return true;
+            return parser.parseSignedClaims(authToken).getPayload().getSubject();
         } catch (ExpiredJwtException e) {
             throw new JwtValidationException("Token expired", e);
         } catch (UnsupportedJwtException e) {
@@ -1,24 +1,63 @@
 package com.larr.app.e_commerce.security.service;
 
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.larr.app.e_commerce.dto.CartSummary;
+import com.larr.app.e_commerce.dto.CartSummaryRow;
 import com.larr.app.e_commerce.model.Cart;
 import com.larr.app.e_commerce.model.CartStatus;
 import com.larr.app.e_commerce.repository.CartRepository;
+import com.larr.app.e_commerce.service.OptimisticRetry;
+import com.larr.app.e_commerce.service.VersionConflictException;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * Carts and the lookup of each user's active cart.
+ *
+ * The id of a user's active cart is cached, so finding it is a primary key
+ * read instead of a search by user and status. Only the id is cached, never
+ * the cart, whose total keeps changing. A cached id is checked against the
+ * cart it loads, so a cart changed behind this service costs a miss, not a
+ * wrong answer. Cache metrics are published under "active-carts".
+ */
 @Service
 public class CartService {
   private final CartRepository repository;
+  private final OptimisticRetry retry;
+  // user id -> id of their active cart
+  private final Cache<String, String> activeCarts;
 
-  public CartService(CartRepository repository) {
+  public CartService(CartRepository repository, OptimisticRetry retry, MeterRegistry registry,
+      @Value("${carts.active-cache.max-size:100000}") long maxSize,
+      @Value("${carts.active-cache.ttl:30m}") Duration ttl) {
     this.repository = repository;
+    this.retry = retry;
+    this.activeCarts = Caffeine.newBuilder()
+        .maximumSize(maxSize)
+        .expireAfterAccess(ttl)
+        .recordStats()
+        .build();
+    CaffeineCacheMetrics.monitor(registry, activeCarts, "active-carts");
   }
 
+  // The total is kept by CartItemService from the items, never set by clients
   public Cart createCart(Cart cart) {
-    return repository.save(cart);
+    cart.setTotalprice(0);
+    Cart saved = repository.save(cart);
+    cacheIfActive(saved);
+    return saved;
   }
 
   public Cart findCart(String id) {
@@ -31,6 +70,9 @@ public class CartService {
   }
 
   public Cart findCart(String userId, CartStatus status) {
+    if (status == CartStatus.active) {
+      return findActiveCart(userId);
+    }
     Optional<Cart> cart = repository.findCartByUserIdAndStatus(userId, status);
     if (cart.isPresent()) {
       return cart.get();
@@ -39,14 +81,52 @@ public class CartService {
     }
   }
 
-  public Cart updateCartStatus(CartStatus status, Cart cart) {
-    cart.setStatus(status);
-    return repository.save(cart);
+  // Returns null when the cart does not exist
+  public CartSummary findCartSummary(String id) {
+    List<CartSummaryRow> rows = repository.findSummaryRows(id);
+    if (rows.isEmpty()) {
+      return null;
+    }
+
+    List<CartSummary.Item> items = new ArrayList<>(rows.size());
+    for (CartSummaryRow row : rows) {
+      if (row.itemId() != null) {
+        CartSummary.ItemProduct product = row.productId() == null ? null
+            : new CartSummary.ItemProduct(row.productId(), row.productName(), row.productImgUrl(),
+                row.productQuantity(), row.productActive());
+        items.add(new CartSummary.Item(row.itemId(), row.quantity(), row.price(), row.subtotal(), product));
+      }
+    }
+    CartSummaryRow header = rows.get(0);
+    return new CartSummary(header.cartId(), header.status(), header.totalprice(), header.updatedAt(), items);
+  }
+
+  // Sets the status on a fresh copy, so a total changed in the meantime is
+  // kept instead of being overwritten with the one the caller loaded. Refused
+  // when the cart is no longer at the version the client read
+  public Cart updateCartStatus(CartStatus status, Cart cart, long version) {
+    Cart saved = retry.execute(() -> {
+      Cart current = repository.findById(cart.getId()).orElseThrow();
+      if (current.getVersion() != version) {
+        throw new VersionConflictException("Cart " + cart.getId() + " is at version " + current.getVersion()
+            + ", not " + version);
+      }
+      current.setStatus(status);
+      return current;
+    });
+    if (saved.getUser() != null) {
+      activeCarts.invalidate(saved.getUser().getId());
+    }
+    cacheIfActive(saved);
+    return saved;
   }
 
-  public Cart updateCartPrice(Cart cart, double price) {
-    cart.setTotalprice(price);
-    return repository.save(cart);
+  // Repairs a total that drifted, e.g. after items were changed directly in
+  // the database, by summing the subtotals of all items of the cart
+  @Transactional
+  public Cart recomputeTotal(Cart cart) {
+    repository.recomputeTotal(cart.getId(), LocalDateTime.now());
+    return repository.findById(cart.getId()).orElseThrow();
   }
 
   public List<Cart> findAllCarts() {
@@ -56,4 +136,25 @@ public class CartService {
   public List<Cart> findAllByUser(String userId) {
     return repository.findByUserId(userId);
   }
+
+  private Cart findActiveCart(String userId) {
+    String cartId = activeCarts.getIfPresent(userId);
+    if (cartId != null) {
+      Optional<Cart> cart = repository.findById(cartId);
+      if (cart.isPresent() && cart.get().getStatus() == CartStatus.active) {
+        return cart.get();
+      }
+      activeCarts.invalidate(userId);
+    }
+
+    Optional<Cart> cart = repository.findCartByUserIdAndStatus(userId, CartStatus.active);
+    cart.ifPresent(this::cacheIfActive);
+    return cart.orElse(null);
+  }
+
+  private void cacheIfActive(Cart cart) {
+    if (cart.getStatus() == CartStatus.active && cart.getUser() != null) {
+      activeCarts.put(cart.getUser().getId(), cart.getId());
+    }
+  }
 }
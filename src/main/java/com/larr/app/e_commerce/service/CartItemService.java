@@ -1,34 +1,139 @@
 package com.larr.app.e_commerce.service;
 
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import com.larr.app.e_commerce.dto.CartItemBatchEntry;
+import com.larr.app.e_commerce.dto.CartItemBatchResult;
 import com.larr.app.e_commerce.model.Cart;
 import com.larr.app.e_commerce.model.CartItem;
+import com.larr.app.e_commerce.model.Product;
 import com.larr.app.e_commerce.repository.CartItemRepository;
+import com.larr.app.e_commerce.repository.CartRepository;
 
+/**
+ * Cart items and the running total of their cart.
+ *
+ * Every item change adds its subtotal delta to Cart.totalprice with one atomic
+ * UPDATE in the same transaction, so the total stays exact without reading the
+ * other items. Prices come from the product, never from the client, and every
+ * write refuses a quantity that is not positive.
+ */
 @Service
 public class CartItemService {
+  // Adding a product the cart already holds adds to that row, at the unit price
+  // it was first added with. The unique (cart_id, product_id) key makes
+  // concurrent adds of one product queue up on the row instead of duplicating it.
+  // The row alias needs MySQL 8.0.19, VALUES() is deprecated since 8.0.20
+  private static final String UPSERT_SQL = "INSERT INTO cart_items "
+      + "(id, cart_id, product_id, quantity, price, subtotal, added_at, version) VALUES (?, ?, ?, ?, ?, ?, ?, 0) "
+      + "AS new ON DUPLICATE KEY UPDATE quantity = cart_items.quantity + new.quantity, "
+      + "subtotal = cart_items.subtotal + new.quantity * cart_items.price, version = cart_items.version + 1";
 
   private final CartItemRepository repository;
+  private final CartRepository cartRepository;
+  private final ProductService productService;
+  private final OptimisticRetry retry;
+  private final JdbcTemplate jdbcTemplate;
 
-  public CartItemService(CartItemRepository repository) {
+  public CartItemService(CartItemRepository repository, CartRepository cartRepository,
+      ProductService productService, OptimisticRetry retry, JdbcTemplate jdbcTemplate) {
     this.repository = repository;
+    this.cartRepository = cartRepository;
+    this.productService = productService;
+    this.retry = retry;
+    this.jdbcTemplate = jdbcTemplate;
   }
 
+  // Returns null when the product does not exist or is no longer sold. The
+  // price is read from the table, never from the product cache
+  @Transactional
   public CartItem addToCart(Cart cart, CartItem item) {
-    item.setCart(cart);
-    return repository.save(item);
+    requirePositive(item.getQuantity());
+    Product product = item.getProduct() == null ? null
+        : productService.findActiveProductsByIds(List.of(item.getProduct().getId())).stream()
+            .findFirst().orElse(null);
+    if (product == null) {
+      return null;
+    }
+
+    Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+    jdbcTemplate.update(UPSERT_SQL, upsertRow(cart, product, item.getQuantity(), now));
+    // The upsert keeps the row locked until commit, and its price never changes
+    CartItem saved = repository.findByCartIdAndProductId(cart.getId(), product.getId()).orElseThrow();
+    return withTotal(saved, item.getQuantity() * saved.getPrice());
+  }
+
+  // Works on a fresh copy of the item, so the total moves by the difference
+  // to what is actually stored. Returns null when the item was removed meanwhile,
+  // and is refused when it is no longer at the version the client read
+  public CartItem updateCartItemQuantity(CartItem item, long version, int quantity) {
+    requirePositive(quantity);
+    return retry.execute(() -> {
+      CartItem current = repository.findById(item.getId()).orElse(null);
+      if (current == null) {
+        return null;
+      }
+      if (current.getVersion() != version) {
+        throw new VersionConflictException("Cart item " + item.getId() + " is at version "
+            + current.getVersion() + ", not " + version);
+      }
+      double previousSubtotal = current.getSubtotal();
+      current.setQuantity(quantity);
+      current.setSubtotal(quantity * current.getPrice());
+      // Adding to the total flushes the item first, which checks its version
+      return withTotal(current, current.getSubtotal() - previousSubtotal);
+    });
   }
 
-  public CartItem updateCartItemQuantity(CartItem item, int quantity) {
-    item.setQuantity(quantity);
-    item.setSubtotal(quantity * item.getPrice());
+  /**
+   * Adds many products to the cart in one transaction. Entries for the same
+   * product are summed, and so is an item the cart already holds. One query
+   * loads the products, the rows go out as one batch of upserts in product
+   * order, so concurrent batches lock rows in the same order, and the total
+   * moves once by the sum of all deltas.
+   */
+  @Transactional
+  public CartItemBatchResult addToCart(Cart cart, List<CartItemBatchEntry> entries) {
+    Map<String, Integer> quantities = new TreeMap<>();
+    for (CartItemBatchEntry entry : entries) {
+      requirePositive(entry.quantity());
+      quantities.merge(entry.productId(), entry.quantity(), Integer::sum);
+    }
+
+    Map<String, Product> products = productService.findActiveProductsByIds(quantities.keySet()).stream()
+        .collect(Collectors.toMap(Product::getId, Function.identity()));
+    List<String> unknownProducts = quantities.keySet().stream().filter(id -> !products.containsKey(id)).toList();
+    if (!unknownProducts.isEmpty()) {
+      return new CartItemBatchResult(List.of(), cart.getTotalprice(), unknownProducts);
+    }
 
-    return repository.save(item);
+    List<Object[]> rows = new ArrayList<>(quantities.size());
+    Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+    quantities.forEach((productId, quantity) -> rows.add(upsertRow(cart, products.get(productId), quantity, now)));
+    jdbcTemplate.batchUpdate(UPSERT_SQL, rows);
+
+    // Rows that already existed kept their own price, so read back what applied
+    double delta = 0;
+    for (CartItem item : repository.findByCartIdAndProductIdIn(cart.getId(), quantities.keySet())) {
+      delta += quantities.get(item.getProduct().getId()) * item.getPrice();
+    }
+    cartRepository.addToTotal(cart.getId(), delta, LocalDateTime.now());
+    List<CartItem> items = repository.findByCart(cart);
+    Cart updated = cartRepository.findById(cart.getId()).orElseThrow();
+    return new CartItemBatchResult(items, updated.getTotalprice(), List.of());
   }
 
   public CartItem findCartItem(String id, String cartId) {
@@ -41,7 +146,13 @@ public class CartItemService {
   }
 
   public void removeItemFromCart(CartItem item) {
-    repository.delete(item);
+    retry.execute(() -> {
+      repository.findById(item.getId()).ifPresent(current -> {
+        repository.delete(current);
+        cartRepository.addToTotal(current.getCart().getId(), -current.getSubtotal(), LocalDateTime.now());
+      });
+      return null;
+    });
   }
 
   public List<CartItem> listAllCartItems(Cart cart) {
@@ -51,6 +162,26 @@ public class CartItemService {
   @Transactional
   public void removeAllItemFromCart(String cartId) {
     repository.deleteByCart(cartId);
+    // Nothing is left to sum, so this only resets the total
+    cartRepository.recomputeTotal(cartId, LocalDateTime.now());
+  }
+
+  private static void requirePositive(int quantity) {
+    if (quantity <= 0) {
+      throw new InvalidQuantityException("Quantity must be greater than 0");
+    }
+  }
+
+  private static Object[] upsertRow(Cart cart, Product product, int quantity, Timestamp now) {
+    return new Object[] { UUID.randomUUID().toString(), cart.getId(), product.getId(), quantity, product.getPrice(),
+        quantity * product.getPrice(), now };
   }
 
-}
\ No newline at end of file
+  // Applies the delta and hands back the item with its cart's new total
+  private CartItem withTotal(CartItem item, double delta) {
+    String cartId = item.getCart().getId();
+    cartRepository.addToTotal(cartId, delta, LocalDateTime.now());
+    item.setCart(cartRepository.findById(cartId).orElseThrow());
+    return item;
+  }
+}
@@ -0,0 +1,165 @@
+package com.larr.app.e_commerce.service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.larr.app.e_commerce.model.CartStatus;
+import com.larr.app.e_commerce.repository.CartItemRepository;
+import com.larr.app.e_commerce.repository.CartRepository;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Background job that abandons idle carts and purges their items.
+ *
+ * A run first marks active carts not updated for the idle threshold as
+ * abandoned, then deletes the items of abandoned carts. Both steps work in
+ * batches of at most batch-size rows, each batch in its own short transaction,
+ * so no statement locks more than one batch and shoppers never wait on a whole
+ * run. Carts are kept, since payments refer to them. Cached active cart ids
+ * are left alone: a lookup checks the status of the cart it finds. Runs happen
+ * on a thread of their own, so a long one never delays the other scheduled
+ * tasks.
+ *
+ * Published metrics: carts.sweeper.carts and carts.sweeper.items count rows
+ * abandoned and deleted, carts.sweeper.batch times each batch, and the
+ * carts.sweeper.run.rows and carts.sweeper.run.rows-per-second gauges show the
+ * progress of the current or last run.
+ */
+@Component
+public class CartSweeper {
+  private static final Logger logger = LoggerFactory.getLogger(CartSweeper.class);
+
+  private final CartRepository cartRepository;
+  private final CartItemRepository itemRepository;
+  private final TransactionTemplate transactionTemplate;
+
+  private final Counter abandonedCarts;
+  private final Counter deletedItems;
+  private final Timer batches;
+  private final ExecutorService executor = Executors.newSingleThreadExecutor(
+      Thread.ofPlatform().name("cart-sweeper").daemon().factory());
+  private final AtomicBoolean running = new AtomicBoolean();
+  // Progress of the current or last run, written by the scheduler thread only
+  private volatile long runRows;
+  private volatile double runRate;
+
+  @Value("${carts.sweeper.enabled:true}")
+  private boolean enabled;
+
+  @Value("${carts.sweeper.idle-threshold:7d}")
+  private Duration idleThreshold;
+
+  @Value("${carts.sweeper.batch-size:500}")
+  private int batchSize;
+
+  public CartSweeper(CartRepository cartRepository, CartItemRepository itemRepository,
+      PlatformTransactionManager transactionManager, MeterRegistry registry) {
+    this.cartRepository = cartRepository;
+    this.itemRepository = itemRepository;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+
+    this.abandonedCarts = registry.counter("carts.sweeper.carts");
+    this.deletedItems = registry.counter("carts.sweeper.items");
+    this.batches = registry.timer("carts.sweeper.batch");
+    Gauge.builder("carts.sweeper.run.rows", this, sweeper -> sweeper.runRows).register(registry);
+    Gauge.builder("carts.sweeper.run.rows-per-second", this, sweeper -> sweeper.runRate).register(registry);
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  @Scheduled(fixedDelayString = "${carts.sweeper.interval-ms:600000}",
+      initialDelayString = "${carts.sweeper.initial-delay-ms:60000}")
+  public void scheduleSweep() {
+    if (enabled && running.compareAndSet(false, true)) {
+      executor.execute(() -> {
+        try {
+          sweep();
+        } catch (RuntimeException e) {
+          logger.warn("Cart sweep failed, retrying on the next run", e);
+        } finally {
+          running.set(false);
+        }
+      });
+    }
+  }
+
+  private void sweep() {
+    long start = System.nanoTime();
+    runRows = 0;
+    runRate = 0;
+    LocalDateTime cutoff = LocalDateTime.now().minus(idleThreshold);
+
+    int carts = 0;
+    List<String> ids;
+    do {
+      ids = cartRepository.findIdleIds(CartStatus.active, cutoff, PageRequest.of(0, batchSize));
+      if (!ids.isEmpty()) {
+        List<String> batch = ids;
+        int marked = inBatch(() -> cartRepository.markAbandoned(batch, cutoff, LocalDateTime.now()));
+        carts += marked;
+        abandonedCarts.increment(marked);
+        progress(marked, start);
+      }
+    } while (ids.size() == batchSize);
+
+    // Also catches items of carts abandoned through the API, whose total is
+    // zeroed along with them
+    int items = 0;
+    do {
+      ids = itemRepository.findIdsByCartStatus(CartStatus.abandoned, PageRequest.of(0, batchSize));
+      if (!ids.isEmpty()) {
+        List<String> batch = ids;
+        int deleted = inBatch(() -> {
+          List<String> cartIds = itemRepository.findCartIdsByIds(batch);
+          int rows = itemRepository.deleteByIds(batch);
+          cartRepository.clearAbandonedTotals(cartIds);
+          return rows;
+        });
+        items += deleted;
+        deletedItems.increment(deleted);
+        progress(deleted, start);
+      }
+    } while (ids.size() == batchSize);
+
+    if (runRows > 0) {
+      logger.info("Cart sweep abandoned {} carts and deleted {} items in {} ms", carts, items,
+          Duration.ofNanos(System.nanoTime() - start).toMillis());
+    }
+  }
+
+  private int inBatch(IntSupplier statement) {
+    long started = System.nanoTime();
+    Integer rows = transactionTemplate.execute(status -> statement.getAsInt());
+    batches.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+    return rows;
+  }
+
+  private void progress(int rows, long start) {
+    runRows += rows;
+    double seconds = (System.nanoTime() - start) / 1e9;
+    runRate = seconds > 0 ? runRows / seconds : 0;
+  }
+}
@@ -0,0 +1,254 @@
+package com.larr.app.e_commerce.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.larr.app.e_commerce.dto.ProductSummary;
+import com.larr.app.e_commerce.model.Product;
+import com.larr.app.e_commerce.repository.CategoryRepository;
+import com.larr.app.e_commerce.repository.ProductRepository;
+import com.larr.app.e_commerce.service.ProductChangedEvent.Change;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Pre-rendered, gzip-compressed JSON arrays of the active catalog and of each
+ * category, served as they are without touching the database or Jackson.
+ *
+ * A committed change only marks the snapshots it touches as stale; a scheduled
+ * refresh renders them again off the request path, so a burst of writes costs
+ * one render per snapshot. Until then the previous snapshot keeps being served,
+ * at most one refresh interval behind. A category snapshot is rendered on its
+ * first request and only kept when the category exists.
+ *
+ * Products show whether they are in stock rather than how many are left, so
+ * the stock moves of checkouts only cause a render when a product runs out or
+ * comes back. The ETag is weak: the same content goes out gzip-compressed or
+ * not, depending on the client.
+ */
+@Component
+public class CatalogSnapshots {
+  private static final Logger logger = LoggerFactory.getLogger(CatalogSnapshots.class);
+  private static final String FULL_CATALOG = "";
+
+  public record Snapshot(byte[] gzip, String eTag) {
+  }
+
+  public record Entry(String id, String name, String description, double price, boolean inStock, String imgUrl,
+      String categoryId, String categoryName) {
+
+    static Entry of(ProductSummary product) {
+      return new Entry(product.id(), product.name(), product.description(), product.price(),
+          product.quantity() > 0, product.imgUrl(), product.categoryId(), product.categoryName());
+    }
+  }
+
+  private final ProductRepository productRepository;
+  private final CategoryRepository categoryRepository;
+  private final TransactionTemplate transactionTemplate;
+  private final ObjectWriter writer;
+  private final ObjectMapper objectMapper;
+
+  private final Map<String, Snapshot> snapshots = new ConcurrentHashMap<>();
+  private final Set<String> stale = ConcurrentHashMap.newKeySet();
+  // Number of first renders in progress per key, whose stale marks must
+  // survive until the snapshot they render is stored
+  private final Map<String, Integer> rendering = new ConcurrentHashMap<>();
+  // Category each product was last seen in, so moving a product also
+  // refreshes the category it left
+  private final Map<String, String> productCategories = new ConcurrentHashMap<>();
+  // Whether each product was last seen in stock
+  private final Map<String, Boolean> productStock = new ConcurrentHashMap<>();
+  private final ExecutorService executor = Executors.newSingleThreadExecutor(
+      Thread.ofPlatform().name("catalog-snapshots").daemon().factory());
+  private final AtomicBoolean refreshing = new AtomicBoolean();
+
+  public CatalogSnapshots(ProductRepository productRepository, CategoryRepository categoryRepository,
+      PlatformTransactionManager transactionManager, ObjectMapper objectMapper) {
+    this.productRepository = productRepository;
+    this.categoryRepository = categoryRepository;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.transactionTemplate.setReadOnly(true);
+    this.objectMapper = objectMapper;
+    this.writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+  }
+
+  public Snapshot catalog() {
+    Snapshot snapshot = snapshots.get(FULL_CATALOG);
+    return snapshot != null ? snapshot : firstRender(FULL_CATALOG, this::renderCatalog);
+  }
+
+  // Null when the category does not exist
+  public Snapshot category(String name) {
+    String key = key(name);
+    Snapshot snapshot = snapshots.get(key);
+    return snapshot != null ? snapshot : firstRender(key, () -> renderCategory(name));
+  }
+
+  @TransactionalEventListener(fallbackExecution = true)
+  public void onProductChanged(ProductChangedEvent event) {
+    Product product = event.product();
+    Boolean wasInStock = productStock.put(product.getId(), product.getQuantity() > 0);
+    if (event.change() == Change.QUANTITY && wasInStock != null && wasInStock == product.getQuantity() > 0) {
+      return;
+    }
+    String category = product.getCategory() == null ? null : key(product.getCategory().getName());
+    String previous = category == null ? productCategories.remove(product.getId())
+        : productCategories.put(product.getId(), category);
+
+    stale.add(FULL_CATALOG);
+    if (category != null) {
+      stale.add(category);
+    }
+    if (previous != null) {
+      stale.add(previous);
+    }
+  }
+
+  // Renames are rare; the old name simply stops being served
+  @TransactionalEventListener(fallbackExecution = true)
+  public void onCategoryChanged(CategoryChangedEvent event) {
+    snapshots.keySet().removeIf(key -> !key.equals(FULL_CATALOG));
+    stale.add(FULL_CATALOG);
+    // A first render in progress may still store the old content
+    stale.addAll(rendering.keySet());
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  // A full render can take a while, so it runs on a thread of its own and
+  // never holds up the other scheduled tasks
+  @Scheduled(fixedDelayString = "${products.snapshots.refresh-interval-ms:1000}")
+  public void scheduleRefresh() {
+    if (!stale.isEmpty() && refreshing.compareAndSet(false, true)) {
+      executor.execute(() -> {
+        try {
+          refresh();
+        } catch (RuntimeException e) {
+          logger.warn("Catalog snapshot refresh failed, retrying on the next run", e);
+        } finally {
+          refreshing.set(false);
+        }
+      });
+    }
+  }
+
+  private void refresh() {
+    for (String key : List.copyOf(stale)) {
+      // Cleared before rendering, so a change made meanwhile renders again
+      stale.remove(key);
+      if (rendering.containsKey(key)) {
+        // Its first snapshot may predate the change; render it once stored
+        stale.add(key);
+      } else if (key.equals(FULL_CATALOG)) {
+        if (snapshots.containsKey(FULL_CATALOG)) {
+          snapshots.put(FULL_CATALOG, renderCatalog());
+        }
+      } else if (snapshots.containsKey(key)) {
+        // Keys are lower-cased names, which MySQL compares case-insensitively
+        Snapshot snapshot = renderCategory(key);
+        if (snapshot != null) {
+          snapshots.put(key, snapshot);
+        } else {
+          snapshots.remove(key);
+        }
+      }
+    }
+  }
+
+  // Checked by refresh before the snapshots themselves, so the key counts as
+  // rendering until its snapshot is stored
+  private Snapshot firstRender(String key, Supplier<Snapshot> render) {
+    rendering.merge(key, 1, Integer::sum);
+    try {
+      Snapshot snapshot = render.get();
+      if (snapshot != null) {
+        snapshots.putIfAbsent(key, snapshot);
+      }
+      return snapshot;
+    } finally {
+      rendering.computeIfPresent(key, (rendered, count) -> count == 1 ? null : count - 1);
+    }
+  }
+
+  private Snapshot renderCatalog() {
+    long start = System.nanoTime();
+    Snapshot snapshot = transactionTemplate.execute(status -> {
+      try (Stream<ProductSummary> products = productRepository.streamActiveSummaries()) {
+        return render(products.peek(product -> {
+          if (product.categoryName() != null) {
+            productCategories.put(product.id(), key(product.categoryName()));
+          }
+          productStock.put(product.id(), product.quantity() > 0);
+        }));
+      }
+    });
+    logger.debug("Rendered catalog snapshot of {} bytes in {} ms", snapshot.gzip().length,
+        (System.nanoTime() - start) / 1_000_000);
+    return snapshot;
+  }
+
+  private Snapshot renderCategory(String name) {
+    List<ProductSummary> products = productRepository.findActiveSummaryPageByCategoryName(name, "",
+        Limit.unlimited());
+    if (products.isEmpty() && categoryRepository.findCategoryByName(name).isEmpty()) {
+      return null;
+    }
+    return render(products.stream());
+  }
+
+  private Snapshot render(Stream<ProductSummary> products) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    CRC32 checksum = new CRC32();
+    try (OutputStream out = new CheckedOutputStream(new GZIPOutputStream(bytes), checksum);
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+      generator.writeStartArray();
+      products.forEach(product -> {
+        try {
+          writer.writeValue(generator, Entry.of(product));
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+      generator.writeEndArray();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return new Snapshot(bytes.toByteArray(), "W/\"" + Long.toHexString(checksum.getValue()) + "\"");
+  }
+
+  private static String key(String category) {
+    return category.toLowerCase(Locale.ROOT);
+  }
+}
@@ -0,0 +1,42 @@
+package com.larr.app.e_commerce.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import com.larr.app.e_commerce.model.Product;
+
+/**
+ * Catalog-wide version counter behind the ETags of the listing endpoints.
+ *
+ * Every committed product or category change bumps the counter. The tag also
+ * carries the startup time, so a restart never hands out a tag that an
+ * earlier run used for different content. Read the tag before loading the
+ * data it describes: a change in between then costs one extra full response
+ * instead of leaving clients with stale data under a current tag.
+ */
+@Component
+public class CatalogVersion {
+  private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+  private final AtomicLong version = new AtomicLong();
+
+  public String eTag() {
+    return "\"" + epoch + "-" + version.get() + "\"";
+  }
+
+  // Row version of a single product, which every write to it bumps
+  public static String eTag(Product product) {
+    return "\"" + product.getVersion() + "\"";
+  }
+
+  @TransactionalEventListener(fallbackExecution = true)
+  public void onProductChanged(ProductChangedEvent event) {
+    version.incrementAndGet();
+  }
+
+  @TransactionalEventListener(fallbackExecution = true)
+  public void onCategoryChanged(CategoryChangedEvent event) {
+    version.incrementAndGet();
+  }
+}
@@ -0,0 +1,9 @@
+package com.larr.app.e_commerce.service;
+
+import com.larr.app.e_commerce.model.Category;
+
+/**
+ * Published by {@link CategoryService} after a category has been written.
+ */
+public record CategoryChangedEvent(Category category) {
+}
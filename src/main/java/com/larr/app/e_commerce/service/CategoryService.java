@@ -3,17 +3,25 @@ package com.larr.app.e_commerce.service;
 import java.util.List;
 import java.util.Optional;
 
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import com.larr.app.e_commerce.model.Category;
 import com.larr.app.e_commerce.repository.CategoryRepository;
+import com.larr.app.e_commerce.repository.ProductRepository;
 
 @Service
 public class CategoryService {
   private final CategoryRepository repository;
+  private final ProductRepository productRepository;
+  private final ApplicationEventPublisher publisher;
 
-  public CategoryService(CategoryRepository repository) {
+  public CategoryService(CategoryRepository repository, ProductRepository productRepository,
+      ApplicationEventPublisher publisher) {
     this.repository = repository;
+    this.productRepository = productRepository;
+    this.publisher = publisher;
   }
 
   public Category findCategoryById(String id) {
@@ -34,9 +42,15 @@ public class CategoryService {
     }
   }
 
+  // The products of the category get new row versions in the same
+  // transaction, so clients revalidating them see the new name
+  @Transactional
   public Category updCategoryName(Category category, String name) {
     category.setName(name);
-    return repository.save(category);
+    Category saved = repository.save(category);
+    productRepository.bumpVersionsInCategory(saved.getId());
+    publisher.publishEvent(new CategoryChangedEvent(saved));
+    return saved;
   }
 
   public List<Category> findAllCategories() {
@@ -0,0 +1,370 @@
+package com.larr.app.e_commerce.service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Limit;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.larr.app.e_commerce.dto.StockReservationResult;
+import com.larr.app.e_commerce.model.Cart;
+import com.larr.app.e_commerce.model.CartItem;
+import com.larr.app.e_commerce.model.CartStatus;
+import com.larr.app.e_commerce.model.Payment;
+import com.larr.app.e_commerce.model.Product;
+import com.larr.app.e_commerce.model.ReservationStatus;
+import com.larr.app.e_commerce.model.StockReservation;
+import com.larr.app.e_commerce.model.StockReservationLine;
+import com.larr.app.e_commerce.repository.CartItemRepository;
+import com.larr.app.e_commerce.repository.PaymentRepository;
+import com.larr.app.e_commerce.repository.ProductRepository;
+import com.larr.app.e_commerce.repository.StockReservationRepository;
+import com.larr.app.e_commerce.service.ProductChangedEvent.Change;
+import com.larr.app.e_commerce.service.stock.HotStockLedger;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Reserves the stock of a whole cart before it is paid for.
+ *
+ * Quantities are summed per product and taken in product id order, so two
+ * checkouts sharing products lock their rows in the same order and cannot
+ * deadlock. Database stock is taken by one batch of conditional UPDATEs in
+ * one transaction; when any product is short the transaction rolls back and
+ * nothing is reserved. Hot products are reserved in memory by the
+ * {@link HotStockLedger}. With MySQL the batch is one round trip when the JDBC
+ * URL sets rewriteBatchedStatements=true.
+ *
+ * A reservation is confirmed when its payment completes, and its stock is
+ * given back when the payment fails or is cancelled, or when it expires
+ * unpaid. Payments still pending on stock that went back are stopped by their
+ * provider; one that completes anyway takes the stock again, and is flagged
+ * oversold when it is gone.
+ */
+@Service
+public class CheckoutService {
+  private static final Logger logger = LoggerFactory.getLogger(CheckoutService.class);
+  // Matches no row, and so reports the product as short, when it is
+  // inactive or missing as well as when there is not enough of it
+  private static final String TAKE_SQL = "UPDATE products SET quantity = quantity - ?, version = version + 1 "
+      + "WHERE id = ? AND is_active = true AND quantity >= ?";
+  private static final String GIVE_BACK_SQL = "UPDATE products SET quantity = quantity + ?, version = version + 1 "
+      + "WHERE id = ?";
+  private static final String LOCK_CART_SQL = "SELECT status FROM carts WHERE id = ? FOR UPDATE";
+
+  private final StockReservationRepository reservationRepository;
+  private final PaymentRepository paymentRepository;
+  private final CartItemRepository cartItemRepository;
+  private final ProductRepository productRepository;
+  private final HotStockLedger hotStock;
+  private final JdbcTemplate jdbcTemplate;
+  private final TransactionTemplate transactionTemplate;
+  private final ApplicationEventPublisher publisher;
+  private final ExecutorService executor = Executors.newSingleThreadExecutor(
+      Thread.ofPlatform().name("reservation-expiry").daemon().factory());
+  private final AtomicBoolean expiring = new AtomicBoolean();
+
+  @Value("${checkout.reservation.ttl:15m}")
+  private Duration ttl;
+
+  @Value("${checkout.reservation.expiry-batch-size:100}")
+  private int expiryBatchSize;
+
+  public CheckoutService(StockReservationRepository reservationRepository, PaymentRepository paymentRepository,
+      CartItemRepository cartItemRepository, ProductRepository productRepository, HotStockLedger hotStock,
+      JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager, ApplicationEventPublisher publisher) {
+    this.reservationRepository = reservationRepository;
+    this.paymentRepository = paymentRepository;
+    this.cartItemRepository = cartItemRepository;
+    this.productRepository = productRepository;
+    this.hotStock = hotStock;
+    this.jdbcTemplate = jdbcTemplate;
+    // Stock is committed before the ledger moves hot stock, even when a
+    // payment transaction is open around the call
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    this.publisher = publisher;
+  }
+
+  /**
+   * Reserves the stock of every item of the cart, or nothing. A held
+   * reservation for the same quantities is reused, so a retried payment does
+   * not reserve twice; one for other quantities is released first. Returns
+   * null when the cart has no items, and refuses carts that are no longer
+   * active or hold a product with a quantity that is not positive, which would
+   * otherwise add stock back and lower the amount paid.
+   */
+  public StockReservationResult reserve(Cart cart) {
+    if (cart.getStatus() != CartStatus.active) {
+      return StockReservationResult.inactiveCart();
+    }
+    Map<String, Integer> quantities = new TreeMap<>();
+    for (CartItem item : cartItemRepository.findByCart(cart)) {
+      quantities.merge(item.getProduct().getId(), item.getQuantity(), Integer::sum);
+    }
+    if (quantities.isEmpty()) {
+      return null;
+    }
+    List<String> invalid = quantities.entrySet().stream()
+        .filter(line -> line.getValue() <= 0)
+        .map(Map.Entry::getKey)
+        .toList();
+    if (!invalid.isEmpty()) {
+      return StockReservationResult.invalidQuantities(invalid);
+    }
+
+    LocalDateTime now = LocalDateTime.now();
+    for (StockReservation held : reservationRepository.findByCartIdAndStatus(cart.getId(), ReservationStatus.held)) {
+      if (held.getExpiresAt().isAfter(now) && quantities(held).equals(quantities)) {
+        return new StockReservationResult(held, List.of());
+      }
+      release(held);
+    }
+
+    StockReservation reservation = new StockReservation();
+    reservation.setCart(cart);
+    quantities.forEach((productId, quantity) -> reservation.getLines()
+        .add(new StockReservationLine(productId, quantity)));
+    reservation.setCreatedAt(now);
+    reservation.setExpiresAt(now.plus(ttl));
+
+    List<String> unavailable = new ArrayList<>();
+    AtomicReference<StockReservationResult> outcome = new AtomicReference<>();
+    hotStock.reserveAll(quantities, unavailable,
+        database -> Boolean.TRUE.equals(transactionTemplate.execute(status -> {
+          outcome.set(take(cart, reservation, database, unavailable));
+          if (outcome.get().reservation() != reservation) {
+            status.setRollbackOnly();
+            return false;
+          }
+          return true;
+        })));
+
+    StockReservationResult result = outcome.get();
+    if (result == null) {
+      // The ledger was short of a hot product before the database was asked
+      return new StockReservationResult(null, unavailable);
+    }
+    StockReservation other = result.reservation();
+    if (other != null && other != reservation && !quantities(other).equals(quantities)) {
+      // Another checkout of the cart held stock for other quantities meanwhile
+      return reserve(cart);
+    }
+    return result;
+  }
+
+  /**
+   * Confirms or releases the reservation of the payment once its status is
+   * committed, so a status write that rolls back leaves the stock alone. The
+   * stock moves in transactions of its own, started after the payment one is
+   * over.
+   */
+  @TransactionalEventListener(fallbackExecution = true)
+  public void onPaymentStatusChanged(PaymentStatusChangedEvent event) {
+    Payment payment = event.payment();
+    switch (payment.getStatus()) {
+      case completed -> {
+        if (!confirm(payment)) {
+          logger.error("Payment {} of cart {} completed after its stock went back, and the stock is gone",
+              payment.getId(), payment.getCart().getId());
+          transactionTemplate.executeWithoutResult(status -> paymentRepository.markOversold(payment.getId()));
+        }
+      }
+      case failed, canceled -> {
+        if (payment.getReservation() != null) {
+          release(payment.getReservation());
+        }
+      }
+      default -> {
+      }
+    }
+  }
+
+  // The stock held for the payment stays taken. A payment completed after its
+  // reservation went back, or was used by another payment of a retried
+  // checkout, takes the same stock again; false when that stock is gone
+  private boolean confirm(Payment payment) {
+    StockReservation reservation = payment.getReservation();
+    if (reservation == null) {
+      // Made before payments held stock
+      return true;
+    }
+    if (Boolean.TRUE.equals(transactionTemplate.execute(status -> reservationRepository
+        .transition(reservation.getId(), ReservationStatus.held, ReservationStatus.confirmed) == 1))) {
+      return true;
+    }
+    return retake(payment, reservation);
+  }
+
+  // Takes the stock of the reservation again, for the payment alone. A repeated
+  // completion of the payment finds it moved to the new reservation already
+  private boolean retake(Payment payment, StockReservation paidFor) {
+    StockReservation reservation = new StockReservation();
+    reservation.setCart(paidFor.getCart());
+    reservation.setStatus(ReservationStatus.confirmed);
+    paidFor.getLines().forEach(line -> reservation.getLines()
+        .add(new StockReservationLine(line.getProductId(), line.getQuantity())));
+    reservation.setCreatedAt(LocalDateTime.now());
+    reservation.setExpiresAt(reservation.getCreatedAt());
+
+    AtomicBoolean moved = new AtomicBoolean();
+    boolean taken = hotStock.reserveAll(quantities(paidFor), new ArrayList<>(),
+        database -> Boolean.TRUE.equals(transactionTemplate.execute(status -> {
+          reservationRepository.saveAndFlush(reservation);
+          if (paymentRepository.moveReservation(payment.getId(), paidFor, reservation) == 0) {
+            moved.set(true);
+            status.setRollbackOnly();
+            return false;
+          }
+          if (!take(database, new ArrayList<>())) {
+            status.setRollbackOnly();
+            return false;
+          }
+          return true;
+        })));
+    return taken || moved.get();
+  }
+
+  // Gives back the stock of every held reservation of the cart
+  public void release(Cart cart) {
+    reservationRepository.findByCartIdAndStatus(cart.getId(), ReservationStatus.held).forEach(this::release);
+  }
+
+  // Gives back the stock of a checkout whose payment could not be started. A
+  // reused reservation is left alone: an earlier attempt's payment may still
+  // be pending on it
+  public void release(StockReservationResult result) {
+    if (result.created()) {
+      release(result.reservation());
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  // Runs on a thread of its own: releases lead to calls to the payment
+  // providers, which must not hold up the other scheduled tasks
+  @Scheduled(fixedDelayString = "${checkout.reservation.expiry-check-ms:30000}")
+  public void scheduleExpiry() {
+    if (expiring.compareAndSet(false, true)) {
+      executor.execute(() -> {
+        try {
+          releaseExpired();
+        } catch (RuntimeException e) {
+          logger.warn("Releasing expired stock reservations failed, retrying on the next run", e);
+        } finally {
+          expiring.set(false);
+        }
+      });
+    }
+  }
+
+  private void releaseExpired() {
+    List<StockReservation> expired;
+    do {
+      expired = reservationRepository.findByStatusAndExpiresAtBeforeOrderByExpiresAt(ReservationStatus.held,
+          LocalDateTime.now(), Limit.of(expiryBatchSize));
+      expired.forEach(this::release);
+    } while (expired.size() == expiryBatchSize);
+  }
+
+  // Whoever moves the reservation out of held gives its stock back, and tells
+  // the payment providers
+  private boolean release(StockReservation reservation) {
+    boolean released = hotStock.releaseAll(quantities(reservation),
+        database -> Boolean.TRUE.equals(transactionTemplate.execute(status -> {
+          if (reservationRepository.transition(reservation.getId(), ReservationStatus.held,
+              ReservationStatus.released) == 0) {
+            return false;
+          }
+          if (!database.isEmpty()) {
+            jdbcTemplate.batchUpdate(GIVE_BACK_SQL, database.entrySet().stream()
+                .map(line -> new Object[] { line.getValue(), line.getKey() })
+                .toList());
+            publishQuantities(database.keySet());
+          }
+          return true;
+        })));
+    if (released) {
+      publisher.publishEvent(new StockReservationReleasedEvent(reservation));
+    }
+    return released;
+  }
+
+  // Runs in the transaction taking the stock. The cart row is locked first, so
+  // the checkouts of one cart take turns: one that waited finds the reservation
+  // the other one held and returns it instead of taking the stock twice
+  private StockReservationResult take(Cart cart, StockReservation reservation, Map<String, Integer> quantities,
+      List<String> unavailable) {
+    List<String> status = jdbcTemplate.queryForList(LOCK_CART_SQL, String.class, cart.getId());
+    if (!status.equals(List.of(CartStatus.active.name()))) {
+      return StockReservationResult.inactiveCart();
+    }
+    List<StockReservation> held = reservationRepository.findByCartIdAndStatus(cart.getId(), ReservationStatus.held);
+    if (!held.isEmpty()) {
+      return new StockReservationResult(held.get(0), List.of());
+    }
+    if (!take(quantities, unavailable)) {
+      return new StockReservationResult(null, unavailable);
+    }
+    reservationRepository.save(reservation);
+    return StockReservationResult.created(reservation);
+  }
+
+  // One batch of conditional decrements, in id order; false when any was short
+  private boolean take(Map<String, Integer> quantities, List<String> unavailable) {
+    if (quantities.isEmpty()) {
+      return true;
+    }
+    List<String> ids = new ArrayList<>(quantities.keySet());
+    int[] updated = jdbcTemplate.batchUpdate(TAKE_SQL, ids.stream()
+        .map(id -> new Object[] { quantities.get(id), id, quantities.get(id) })
+        .toList());
+    for (int i = 0; i < updated.length; i++) {
+      if (updated[i] == 0) {
+        unavailable.add(ids.get(i));
+      }
+    }
+    if (!unavailable.isEmpty()) {
+      return false;
+    }
+    publishQuantities(ids);
+    return true;
+  }
+
+  // The JDBC updates bypass Hibernate, so listeners are told from a fresh read
+  private void publishQuantities(Collection<String> ids) {
+    for (Product product : productRepository.findAllById(ids)) {
+      publisher.publishEvent(new ProductChangedEvent(product, Change.QUANTITY));
+    }
+  }
+
+  private static Map<String, Integer> quantities(StockReservation reservation) {
+    Map<String, Integer> quantities = new TreeMap<>();
+    for (StockReservationLine line : reservation.getLines()) {
+      quantities.merge(line.getProductId(), line.getQuantity(), Integer::sum);
+    }
+    return quantities;
+  }
+}
@@ -0,0 +1,11 @@
+package com.larr.app.e_commerce.service;
+
+/**
+ * A cart item write asked for a quantity that is not positive. It would lower
+ * the cart total, and with it the amount the payment asks for.
+ */
+public class InvalidQuantityException extends RuntimeException {
+  public InvalidQuantityException(String message) {
+    super(message);
+  }
+}
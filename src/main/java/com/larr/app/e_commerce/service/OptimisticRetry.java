@@ -0,0 +1,80 @@
+package com.larr.app.e_commerce.service;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Runs a read-modify-write in a transaction of its own and runs it again when
+ * a concurrent write got there first.
+ *
+ * Conflicts are detected by the @Version columns when the write is flushed,
+ * so nothing is locked while the change is prepared. Each retry reloads what
+ * it changes, after an exponential backoff with jitter so racing writers
+ * spread out. Once the attempts are used up the conflict is rethrown, and
+ * the API answers it with 409. The counts are published as
+ * optimistic.retries and optimistic.conflicts.
+ *
+ * Inside an enclosing transaction the work runs once, since a retry would
+ * only see the same stale persistence context; the conflict then reaches the
+ * caller that owns the transaction.
+ */
+@Component
+public class OptimisticRetry {
+  private final TransactionTemplate transactionTemplate;
+  private final Counter retries;
+  private final Counter conflicts;
+
+  @Value("${concurrency.retry.max-attempts:4}")
+  private int maxAttempts;
+
+  @Value("${concurrency.retry.initial-backoff-ms:5}")
+  private long initialBackoffMs;
+
+  @Value("${concurrency.retry.max-backoff-ms:100}")
+  private long maxBackoffMs;
+
+  public OptimisticRetry(PlatformTransactionManager transactionManager, MeterRegistry registry) {
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.retries = registry.counter("optimistic.retries");
+    this.conflicts = registry.counter("optimistic.conflicts");
+  }
+
+  public <T> T execute(Supplier<T> work) {
+    if (TransactionSynchronizationManager.isActualTransactionActive()) {
+      return work.get();
+    }
+
+    for (int attempt = 1;; attempt++) {
+      try {
+        return transactionTemplate.execute(status -> work.get());
+      } catch (OptimisticLockingFailureException e) {
+        if (attempt >= maxAttempts) {
+          conflicts.increment();
+          throw e;
+        }
+        retries.increment();
+        backOff(attempt, e);
+      }
+    }
+  }
+
+  private void backOff(int attempt, OptimisticLockingFailureException conflict) {
+    long ceiling = Math.min(maxBackoffMs, initialBackoffMs << Math.min(attempt - 1, 20));
+    try {
+      Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw conflict;
+    }
+  }
+}
@@ -6,12 +6,15 @@ import java.util.List;
 import java.util.NoSuchElementException;
 
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
 import com.google.gson.Gson;
 import com.larr.app.e_commerce.model.Cart;
 import com.larr.app.e_commerce.model.Payment;
 import com.larr.app.e_commerce.model.PaymentStatus;
+import com.larr.app.e_commerce.model.StockReservation;
 import com.larr.app.e_commerce.model.User;
 import com.larr.app.e_commerce.repository.PaymentRepository;
 import com.paypal.core.PayPalHttpClient;
@@ -30,9 +33,11 @@ import lombok.RequiredArgsConstructor;
 @Service
 @RequiredArgsConstructor
 public class PayPalService {
+  private static final String METHOD = "PAYPAL";
 
   private final PayPalHttpClient payPalHttpClient;
   private final PaymentRepository repository;
+  private final ApplicationEventPublisher publisher;
   private final Gson gson = new Gson();
 
   @Value("${paypal.redirect.success}")
@@ -46,7 +51,8 @@ public class PayPalService {
    */
 
   @Transactional
-  public String createPayment(Double totalAmount, String currency, User user, Cart cart) throws IOException {
+  public String createPayment(Double totalAmount, String currency, User user, Cart cart,
+      StockReservation reservation) throws IOException {
     // Build the paypal request
     OrderRequest orderRequest = new OrderRequest();
 
@@ -82,9 +88,10 @@ public class PayPalService {
     Payment payment = new Payment();
 
     payment.setCart(cart);
+    payment.setReservation(reservation);
     payment.setUser(user);
     payment.setCurrency(currency);
-    payment.setMethod("PAYPAL");
+    payment.setMethod(METHOD);
     payment.setStatus(PaymentStatus.pending);
     payment.setTransactionId(order.id());
     payment.setProviderResponse(gson.toJson(order));
@@ -98,19 +105,24 @@ public class PayPalService {
   }
 
   /**
-   * Capture the payment after the user approves it on PayPal
+   * Capture the payment after the user approves it on PayPal. Not
+   * transactional: the status is committed before checkout moves the stock.
+   * A payment that is no longer pending, cancelled when its stock went back
+   * for instance, is returned as it is and not captured
    */
-  @Transactional
   public Payment completePayment(String token) throws IOException {
     // the token is the order ID returned by paypal in the success url
 
-    OrdersCaptureRequest request = new OrdersCaptureRequest(token);
-    HttpResponse<Order> response = payPalHttpClient.execute(request);
-    Order order = response.result();
-
     // Find the local payment record
     Payment payment = repository.findByTransactionId(token)
         .orElseThrow(() -> new RuntimeException("Payment not found in system"));
+    if (payment.getStatus() != PaymentStatus.pending) {
+      return payment;
+    }
+
+    OrdersCaptureRequest request = new OrdersCaptureRequest(token);
+    HttpResponse<Order> response = payPalHttpClient.execute(request);
+    Order order = response.result();
 
     if ("COMPLETED".equals(order.status())) {
       payment.setStatus(PaymentStatus.completed);
@@ -119,7 +131,31 @@ public class PayPalService {
       payment.setStatus(PaymentStatus.failed);
     }
 
-    return repository.save(payment);
+    payment = repository.save(payment);
+    publisher.publishEvent(new PaymentStatusChangedEvent(payment));
+    return payment;
+  }
+
+  /**
+   * Mark a payment the user cancelled on PayPal and give its stock back
+   */
+  public void cancelPayment(String token) {
+    repository.findByTransactionId(token).ifPresent(payment -> {
+      if (payment.getStatus() == PaymentStatus.pending) {
+        payment.setStatus(PaymentStatus.canceled);
+        publisher.publishEvent(new PaymentStatusChangedEvent(repository.save(payment)));
+      }
+    });
+  }
+
+  // An order is only charged once captured, so a payment still pending on
+  // stock that went back is cancelled here and never captured
+  @EventListener
+  public void onReservationReleased(StockReservationReleasedEvent event) {
+    for (Payment payment : repository.findByReservationIdAndMethodAndStatus(event.reservation().getId(), METHOD,
+        PaymentStatus.pending)) {
+      repository.transition(payment.getId(), PaymentStatus.pending, PaymentStatus.canceled);
+    }
   }
 
 }
\ No newline at end of file
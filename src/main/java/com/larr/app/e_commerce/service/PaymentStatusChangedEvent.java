@@ -0,0 +1,11 @@
+package com.larr.app.e_commerce.service;
+
+import com.larr.app.e_commerce.model.Payment;
+
+/**
+ * Published by {@link StripeService} and {@link PayPalService} after the status
+ * of a payment has been written. The stock reserved for its cart follows once
+ * the write commits.
+ */
+public record PaymentStatusChangedEvent(Payment payment) {
+}
@@ -0,0 +1,83 @@
+package com.larr.app.e_commerce.service;
+
+import java.time.Duration;
+import java.util.function.Function;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.larr.app.e_commerce.model.Product;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * Read-through cache of products keyed by id, bounded by size and TTL.
+ *
+ * Callers always get their own copy of the cached product, so mutating it
+ * before saving cannot leak into concurrent readers. Entries are refreshed
+ * from {@link ProductChangedEvent} once the write has committed, keeping the
+ * copy with the higher version. A renamed category evicts its products, which
+ * carry its name. Hit, miss and eviction counts are published under the
+ * "products" cache metrics.
+ */
+@Component
+public class ProductCache {
+  private final Cache<String, Product> cache;
+
+  public ProductCache(MeterRegistry registry,
+      @Value("${products.cache.max-size:10000}") long maxSize,
+      @Value("${products.cache.ttl:10m}") Duration ttl) {
+    this.cache = Caffeine.newBuilder()
+        .maximumSize(maxSize)
+        .expireAfterWrite(ttl)
+        .recordStats()
+        .build();
+    CaffeineCacheMetrics.monitor(registry, cache, "products");
+  }
+
+  // Returns null without caching anything when the loader finds nothing
+  public Product get(String id, Function<String, Product> loader) {
+    Product product = cache.get(id, loader);
+    return product == null ? null : copy(product);
+  }
+
+  public void evict(String id) {
+    cache.invalidate(id);
+  }
+
+  // Events of concurrent commits can arrive in either order, so an entry is
+  // only replaced by a copy at least as recent as the one it holds
+  @TransactionalEventListener(fallbackExecution = true)
+  public void onProductChanged(ProductChangedEvent event) {
+    Product product = event.product();
+    cache.asMap().merge(product.getId(), copy(product),
+        (cached, fresh) -> fresh.getVersion() >= cached.getVersion() ? fresh : cached);
+  }
+
+  // Cached products carry the old category name, and a rename does not
+  // publish an event per product
+  @TransactionalEventListener(fallbackExecution = true)
+  public void onCategoryChanged(CategoryChangedEvent event) {
+    String categoryId = event.category().getId();
+    cache.asMap().values().removeIf(product -> product.getCategory() != null
+        && categoryId.equals(product.getCategory().getId()));
+  }
+
+  private static Product copy(Product source) {
+    Product product = new Product();
+    product.setId(source.getId());
+    product.setName(source.getName());
+    product.setDescription(source.getDescription());
+    product.setCategory(source.getCategory());
+    product.setPrice(source.getPrice());
+    product.setQuantity(source.getQuantity());
+    product.setImgUrl(source.getImgUrl());
+    product.setActive(source.isActive());
+    product.setVersion(source.getVersion());
+    return product;
+  }
+}
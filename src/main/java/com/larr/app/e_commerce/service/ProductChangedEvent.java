@@ -0,0 +1,15 @@
+package com.larr.app.e_commerce.service;
+
+import com.larr.app.e_commerce.model.Product;
+
+/**
+ * Published by {@link ProductService} after a product has been written, so the
+ * in-memory catalog structures can follow the database without polling it.
+ * The change says which part of the product was written.
+ */
+public record ProductChangedEvent(Product product, Change change) {
+
+  public enum Change {
+    CREATED, UPDATED, NAME, DESCRIPTION, PRICE, QUANTITY, IMAGE, CATEGORY, DELETED
+  }
+}
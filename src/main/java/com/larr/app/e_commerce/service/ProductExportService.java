@@ -0,0 +1,124 @@
+package com.larr.app.e_commerce.service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.MinimalPrettyPrinter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.larr.app.e_commerce.dto.ProductSummary;
+
+/**
+ * Full catalog dumps for feed partners, written while the rows are read.
+ *
+ * The query runs on a forward-only, read-only cursor with a fixed fetch size,
+ * and every row is written and dropped before the next one is fetched, so an
+ * export holds one fetch of rows in memory however large the catalog is. With
+ * MySQL the fetch size is only honoured when the JDBC URL sets
+ * useCursorFetch=true; without it the driver reads the whole result first.
+ */
+@Service
+public class ProductExportService {
+  private static final String EXPORT_SQL = "SELECT p.id, p.name, p.description, p.price, p.quantity, p.img_url, "
+      + "c.id AS category_id, c.category_name FROM products p LEFT JOIN categories c ON c.id = p.category_id "
+      + "WHERE p.is_active = true ORDER BY p.id";
+  private static final String CSV_HEADER = "id,name,description,price,quantity,img_url,category_id,category_name";
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  public enum Format {
+    NDJSON, CSV
+  }
+
+  private final JdbcTemplate jdbcTemplate;
+  private final ObjectMapper objectMapper;
+  private final ObjectWriter writer;
+
+  public ProductExportService(DataSource dataSource, ObjectMapper objectMapper,
+      @Value("${products.export.fetch-size:1000}") int fetchSize) {
+    this.jdbcTemplate = new JdbcTemplate(dataSource);
+    this.jdbcTemplate.setFetchSize(fetchSize);
+    this.objectMapper = objectMapper;
+    // Root values are separated by a newline instead of Jackson's default space
+    this.writer = objectMapper.writer(new MinimalPrettyPrinter("\n"))
+        .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+  }
+
+  public void export(Format format, OutputStream out) throws IOException {
+    OutputStream buffered = new BufferedOutputStream(out, BUFFER_SIZE);
+    try {
+      if (format == Format.CSV) {
+        exportCsv(buffered);
+      } else {
+        exportNdjson(buffered);
+      }
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  private void exportNdjson(OutputStream out) throws IOException {
+    try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+      jdbcTemplate.query(EXPORT_SQL, rs -> {
+        try {
+          writer.writeValue(generator, summary(rs));
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+      // Terminates the last line, when there is one
+      if (generator.getOutputContext().getEntryCount() > 0) {
+        generator.writeRaw('\n');
+      }
+    }
+  }
+
+  private void exportCsv(OutputStream out) throws IOException {
+    try (Writer csv = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+      csv.write(CSV_HEADER);
+      csv.write("\r\n");
+      jdbcTemplate.query(EXPORT_SQL, rs -> {
+        ProductSummary product = summary(rs);
+        try {
+          csv.write(csvField(product.id()) + ',' + csvField(product.name()) + ','
+              + csvField(product.description()) + ',' + product.price() + ',' + product.quantity() + ','
+              + csvField(product.imgUrl()) + ',' + csvField(product.categoryId()) + ','
+              + csvField(product.categoryName()) + "\r\n");
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    }
+  }
+
+  private static ProductSummary summary(ResultSet rs) throws SQLException {
+    return new ProductSummary(rs.getString("id"), rs.getString("name"), rs.getString("description"),
+        rs.getDouble("price"), rs.getInt("quantity"), rs.getString("img_url"), rs.getString("category_id"),
+        rs.getString("category_name"));
+  }
+
+  // RFC 4180: quote fields holding a separator, quote or line break
+  private static String csvField(String value) {
+    if (value == null) {
+      return "";
+    }
+    if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+      return value;
+    }
+    return '"' + value.replace("\"", "\"\"") + '"';
+  }
+}
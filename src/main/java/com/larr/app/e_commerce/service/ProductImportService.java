@@ -0,0 +1,182 @@
+package com.larr.app.e_commerce.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.larr.app.e_commerce.dto.ProductImportOutcome;
+import com.larr.app.e_commerce.dto.ProductImportResult;
+import com.larr.app.e_commerce.model.Category;
+import com.larr.app.e_commerce.model.Product;
+import com.larr.app.e_commerce.repository.CategoryRepository;
+import com.larr.app.e_commerce.repository.ProductRepository;
+
+/**
+ * Bulk product import from a JSON array or an NDJSON stream.
+ *
+ * Records are read one at a time and handled in chunks: one set-based query
+ * checks the names of a chunk against the active catalog, one query resolves
+ * its categories, and the valid rows go to the database as a single JDBC batch.
+ * Ids are generated here, so inserting never waits for the database to hand
+ * one back. With MySQL the batch only becomes one multi-row INSERT when the
+ * JDBC URL sets rewriteBatchedStatements=true.
+ */
+@Service
+public class ProductImportService {
+  private static final String INSERT_SQL = "INSERT INTO products "
+      + "(id, name, description, category_id, price, quantity, img_url, is_active, version) "
+      + "VALUES (?, ?, ?, ?, ?, ?, ?, true, 0)";
+
+  private final ProductRepository productRepository;
+  private final CategoryRepository categoryRepository;
+  private final JdbcTemplate jdbcTemplate;
+  private final TransactionTemplate transactionTemplate;
+  private final ObjectMapper objectMapper;
+  private final ApplicationEventPublisher publisher;
+
+  @Value("${products.import.batch-size:1000}")
+  private int batchSize;
+
+  public ProductImportService(ProductRepository productRepository, CategoryRepository categoryRepository,
+      JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager, ObjectMapper objectMapper,
+      ApplicationEventPublisher publisher) {
+    this.productRepository = productRepository;
+    this.categoryRepository = categoryRepository;
+    this.jdbcTemplate = jdbcTemplate;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.objectMapper = objectMapper;
+    this.publisher = publisher;
+  }
+
+  public ProductImportResult importProducts(InputStream input) {
+    long start = System.nanoTime();
+    List<ProductImportOutcome> outcomes = new ArrayList<>();
+    Set<String> seenNames = new HashSet<>();
+    List<Product> chunk = new ArrayList<>(batchSize);
+    int row = 0;
+    String error = null;
+
+    try (MappingIterator<Product> products = objectMapper.readerFor(Product.class).readValues(input)) {
+      while (products.hasNextValue()) {
+        chunk.add(products.nextValue());
+        if (chunk.size() == batchSize) {
+          importChunk(chunk, row, seenNames, outcomes);
+          row += chunk.size();
+          chunk.clear();
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      error = "Stopped after row " + (row + chunk.size()) + ": " + e.getMessage();
+    }
+    if (!chunk.isEmpty()) {
+      importChunk(chunk, row, seenNames, outcomes);
+      row += chunk.size();
+    }
+
+    long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+    int created = (int) outcomes.stream().filter(outcome -> outcome.id() != null).count();
+    double rowsPerSecond = elapsedMs == 0 ? row : row * 1000.0 / elapsedMs;
+    return new ProductImportResult(row, created, row - created, elapsedMs, rowsPerSecond, error, outcomes);
+  }
+
+  private void importChunk(List<Product> chunk, int firstRow, Set<String> seenNames,
+      List<ProductImportOutcome> outcomes) {
+    Set<String> names = chunk.stream().map(Product::getName).filter(Objects::nonNull).collect(Collectors.toSet());
+    Set<String> existingNames = names.isEmpty() ? Set.of() : productRepository.findActiveNamesIn(names);
+
+    Set<String> categoryIds = chunk.stream().map(Product::getCategory).filter(Objects::nonNull)
+        .map(Category::getId).filter(Objects::nonNull).collect(Collectors.toSet());
+    Map<String, Category> categories = categoryRepository.findAllById(categoryIds).stream()
+        .collect(Collectors.toMap(Category::getId, Function.identity()));
+
+    List<Product> accepted = new ArrayList<>();
+    // Only counted as seen once the batch commits, so a later row may retry a
+    // name whose batch rolled back
+    Set<String> acceptedNames = new HashSet<>();
+    List<ProductImportOutcome> chunkOutcomes = new ArrayList<>(chunk.size());
+    for (int i = 0; i < chunk.size(); i++) {
+      Product product = chunk.get(i);
+      int row = firstRow + i + 1;
+      String problem = validate(product, existingNames, seenNames, acceptedNames, categories);
+
+      if (problem != null) {
+        chunkOutcomes.add(ProductImportOutcome.rejected(row, product.getName(), problem));
+      } else {
+        acceptedNames.add(product.getName());
+        product.setId(UUID.randomUUID().toString());
+        product.setActive(true);
+        if (product.getCategory() != null) {
+          product.setCategory(categories.get(product.getCategory().getId()));
+        }
+        accepted.add(product);
+        chunkOutcomes.add(ProductImportOutcome.created(row, product.getName(), product.getId()));
+      }
+    }
+
+    if (!accepted.isEmpty()) {
+      try {
+        transactionTemplate.executeWithoutResult(status -> jdbcTemplate.batchUpdate(INSERT_SQL, accepted,
+            accepted.size(), (statement, product) -> {
+              statement.setString(1, product.getId());
+              statement.setString(2, product.getName());
+              statement.setString(3, product.getDescription());
+              statement.setString(4, product.getCategory() == null ? null : product.getCategory().getId());
+              statement.setDouble(5, product.getPrice());
+              statement.setInt(6, product.getQuantity());
+              statement.setString(7, product.getImgUrl());
+            }));
+        seenNames.addAll(acceptedNames);
+        for (Product product : accepted) {
+          publisher.publishEvent(new ProductChangedEvent(product, ProductChangedEvent.Change.CREATED));
+        }
+      } catch (DataAccessException e) {
+        // The whole batch rolled back, so none of its rows were created
+        chunkOutcomes.replaceAll(outcome -> outcome.id() == null ? outcome
+            : ProductImportOutcome.rejected(outcome.row(), outcome.name(), "Batch insert failed: "
+                + e.getMostSpecificCause().getMessage()));
+      }
+    }
+    outcomes.addAll(chunkOutcomes);
+  }
+
+  private static String validate(Product product, Set<String> existingNames, Set<String> seenNames,
+      Set<String> acceptedNames, Map<String, Category> categories) {
+    if (product.getName() == null || product.getName().isBlank()) {
+      return "Product name cannot be empty.";
+    }
+    if (existingNames.contains(product.getName())) {
+      return "Product with name: " + product.getName() + " already exists";
+    }
+    if (seenNames.contains(product.getName()) || acceptedNames.contains(product.getName())) {
+      return "Duplicate name in import";
+    }
+    if (product.getPrice() < 0) {
+      return "Price cannot be negative.";
+    }
+    if (product.getQuantity() < 0) {
+      return "Quantity cannot be negative.";
+    }
+    if (product.getCategory() != null && !categories.containsKey(product.getCategory().getId())) {
+      return "Category " + product.getCategory().getId() + " not found";
+    }
+    return null;
+  }
+}
@@ -1,34 +1,94 @@
 package com.larr.app.e_commerce.service;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 // import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import com.larr.app.e_commerce.dto.ProductFacetResult;
+import com.larr.app.e_commerce.dto.ProductPage;
+import com.larr.app.e_commerce.dto.ProductSuggestion;
+import com.larr.app.e_commerce.dto.ProductSummary;
+import com.larr.app.e_commerce.dto.ProductUpdateRequest;
 import com.larr.app.e_commerce.model.Category;
 import com.larr.app.e_commerce.model.Product;
 import com.larr.app.e_commerce.repository.ProductRepository;
+import com.larr.app.e_commerce.service.ProductChangedEvent.Change;
+import com.larr.app.e_commerce.service.search.ProductFacetIndex;
+import com.larr.app.e_commerce.service.search.ProductSearchIndex;
+import com.larr.app.e_commerce.service.search.ProductSuggester;
+import com.larr.app.e_commerce.service.stock.HotStockLedger;
 
 @Service
 public class ProductService {
   private final ProductRepository repo;
+  private final ProductSearchIndex searchIndex;
+  private final ProductFacetIndex facetIndex;
+  private final ProductSuggester suggester;
+  private final ProductCache cache;
+  private final HotStockLedger hotStock;
+  private final OptimisticRetry retry;
+  private final ApplicationEventPublisher publisher;
 
-  public ProductService(ProductRepository repo) {
+  @Value("${products.page.default-size:50}")
+  private int defaultPageSize;
+
+  @Value("${products.page.max-size:500}")
+  private int maxPageSize;
+
+  @Value("${products.search.max-results:50}")
+  private int maxSearchResults;
+
+  @Value("${products.suggest.max-results:10}")
+  private int maxSuggestions;
+
+  public ProductService(ProductRepository repo, ProductSearchIndex searchIndex, ProductFacetIndex facetIndex,
+      ProductSuggester suggester, ProductCache cache, HotStockLedger hotStock, OptimisticRetry retry,
+      ApplicationEventPublisher publisher) {
     this.repo = repo;
+    this.searchIndex = searchIndex;
+    this.facetIndex = facetIndex;
+    this.suggester = suggester;
+    this.cache = cache;
+    this.hotStock = hotStock;
+    this.retry = retry;
+    this.publisher = publisher;
   }
 
   public Product createProduct(Product product) {
-    return repo.save(product);
+    return save(product);
   }
 
+  // The stock of a hot product lives in the ledger, and the table and the
+  // cache only catch up with it at the next flush, so it is read from there.
+  // The cache hands out copies, so the overlay never reaches its entry
   public Product findProductById(String id) {
-    Optional<Product> existingProduct = repo.findById(id);
-    if (existingProduct.isPresent()) {
-      return existingProduct.get();
-    } else {
-      return null;
+    Product product = cache.get(id, key -> {
+      Optional<Product> existingProduct = repo.findById(key);
+      if (existingProduct.isPresent()) {
+        return existingProduct.get();
+      } else {
+        return null;
+      }
+    });
+    Integer available = hotStock.available(id);
+    if (product != null && available != null) {
+      product.setQuantity(available);
     }
+    return product;
+  }
+
+  // Active products among the ids, in one query
+  public List<Product> findActiveProductsByIds(Collection<String> ids) {
+    return repo.findAllById(ids).stream().filter(Product::isActive).toList();
   }
 
   public Product findProductByName(String name) {
@@ -41,60 +101,214 @@ public class ProductService {
   }
 
   public Product increaseProductQuantity(Product product, int quantity) {
-    int newQuantity = product.getQuantity() + quantity;
+    hotStock.restock(product.getId(), quantity, () -> repo.increaseQuantity(product.getId(), quantity));
+    return reload(product.getId(), Change.QUANTITY);
+  }
+
+  /**
+   * Takes the quantity out of stock in a single conditional UPDATE, or out of
+   * the in-memory ledger when the product is in hot stock mode. Returns the
+   * updated product, or null when there was not enough in stock.
+   */
+  public Product decreaseProductQuantity(Product product, int quantity) {
+    String id = product.getId();
+    if (!hotStock.reserve(id, quantity, () -> repo.decreaseQuantityIfAvailable(id, quantity) > 0)) {
+      return null;
+    }
 
-    product.setQuantity(newQuantity);
+    // Hot products are written back by the ledger's flush, not per request,
+    // and the caller's instance may be shared, so a fresh copy is returned
+    if (hotStock.isHot(id)) {
+      return findProductById(id);
+    }
+    return reload(id, Change.QUANTITY);
+  }
 
-    return repo.save(product);
+  public boolean isHotStockEnabled() {
+    return hotStock.isEnabled();
   }
 
-  public Product decreaseProductQuantity(Product product, int quantity) {
-    int newQuantity = product.getQuantity() - quantity;
+  public void enableHotStock(Product product) {
+    hotStock.enable(product.getId());
+  }
+
+  public void disableHotStock(Product product) {
+    hotStock.disable(product.getId());
+  }
 
-    product.setQuantity(newQuantity);
+  /**
+   * Applies every non-null field of the request with one load and one UPDATE of
+   * the columns that actually changed, when the product still has the version
+   * the client read. A quantity is added to the stock with
+   * the atomic increment once the version checked UPDATE went through, and
+   * reaches hot stock only when the transaction commits, so neither a retried
+   * conflict nor a rollback adds it twice.
+   */
+  public Product updateProduct(Product product, long version, ProductUpdateRequest request) {
+    String id = product.getId();
+    return retry.execute(() -> {
+      Product existing = current(id, version);
+      if (request.getName() != null) {
+        existing.setName(request.getName());
+      }
+      if (request.getDescription() != null) {
+        existing.setDescription(request.getDescription());
+      }
+      if (request.getPrice() != null) {
+        existing.setPrice(request.getPrice());
+      }
+      if (request.getImageUrl() != null) {
+        existing.setImgUrl(request.getImageUrl());
+      }
 
-    return repo.save(product);
+      if (request.getQuantity() != null) {
+        repo.flush();
+        hotStock.restock(id, request.getQuantity(), () -> repo.increaseQuantity(id, request.getQuantity()));
+        // The increment cleared the persistence context
+        existing = repo.findById(id).orElseThrow();
+      }
+      publisher.publishEvent(new ProductChangedEvent(existing, Change.UPDATED));
+      return existing;
+    });
   }
 
-  public Product updateProductName(Product product, String name) {
-    product.setName(name);
-    return repo.save(product);
+  public Product updateProductName(Product product, long version, String name) {
+    return update(product.getId(), version, Change.NAME, existing -> existing.setName(name));
   }
 
   public Product updateProductCategory(Product product, Category category) {
-    product.setCategory(category);
-    return repo.save(product);
+    return update(product.getId(), Change.CATEGORY, existing -> existing.setCategory(category));
   }
 
   public Product deleteProduct(Product product) {
-    product.setActive(false);
-    return repo.save(product);
+    return update(product.getId(), Change.DELETED, existing -> existing.setActive(false));
   }
 
   public Product updateProductDescription(Product product, String description) {
-    product.setDescription(description);
-    return repo.save(product);
+    return update(product.getId(), Change.DESCRIPTION, existing -> existing.setDescription(description));
   }
 
-  public Product updateProductPrice(Product product, double price) {
-    product.setPrice(price);
-    return repo.save(product);
+  public Product updateProductPrice(Product product, long version, double price) {
+    return update(product.getId(), version, Change.PRICE, existing -> existing.setPrice(price));
   }
 
-  public Product updateProductImageUrl(Product product, String url) {
-    product.setImgUrl(url);
-    return repo.save(product);
+  public Product updateProductImageUrl(Product product, long version, String url) {
+    return update(product.getId(), version, Change.IMAGE, existing -> existing.setImgUrl(url));
   }
 
-  public List<Product> findProductsByCategory(Category category) {
-    return repo.findAllByCategory(category);
+  /**
+   * Returns a keyset page of the active products of the named category, read
+   * with one joined query. Paging works as in {@link #findProductPage}.
+   */
+  public ProductPage findProductsByCategory(String category, String after, Integer size) {
+    int pageSize = pageSize(size);
+    return page(repo.findActiveSummaryPageByCategoryName(category, after == null ? "" : after,
+        Limit.of(pageSize)), pageSize);
   }
 
-  public List<Product> findProductsByName(String name) {
-    return repo.findByNameContainingIgnoreCase(name);
+  // Served from the in-memory index: active products only, best match first.
+  // Fuzzy matching compares name trigrams and tolerates misspellings
+  public List<Product> findProductsByName(String name, boolean fuzzy) {
+    return fuzzy ? searchIndex.fuzzySearch(name, maxSearchResults) : searchIndex.search(name, maxSearchResults);
+  }
+
+  // Served from memory: active names starting with the prefix, most viewed first
+  public List<ProductSuggestion> suggestProducts(String prefix, Integer limit) {
+    return suggester.suggest(prefix, limit == null || limit <= 0 ? maxSuggestions : Math.min(limit, maxSuggestions));
+  }
+
+  public void recordProductView(Product product) {
+    suggester.recordView(product.getId());
+  }
+
+  /**
+   * Filters the catalog on price range, category, stock and active state, each
+   * optional, and counts the facets of the result. Active only unless told
+   * otherwise. Served from the in-memory facet index; pages are zero based.
+   */
+  public ProductFacetResult findProductFacets(Double minPrice, Double maxPrice, String category, Boolean inStock,
+      Boolean active, Integer page, Integer size) {
+    return facetIndex.query(minPrice, maxPrice, category, inStock, active == null ? Boolean.TRUE : active,
+        page == null || page < 0 ? 0 : page, pageSize(size));
   }
 
   public List<Product> findAllProducts() {
     return repo.findAll();
   }
+
+  /**
+   * Returns the page of active products whose id sorts after the given cursor.
+   * A null cursor starts from the beginning, and a null size falls back to the
+   * configured default. The next cursor is null once the last page is reached.
+   */
+  public ProductPage findProductPage(String after, Integer size) {
+    int pageSize = pageSize(size);
+    return page(repo.findActiveSummaryPage(after == null ? "" : after, Limit.of(pageSize)), pageSize);
+  }
+
+  /**
+   * Hands every active product to the consumer as it is read from the cursor.
+   * Rows are read as summaries, so nothing accumulates in the persistence
+   * context however big the catalog is.
+   */
+  @Transactional(readOnly = true)
+  public void streamActiveProducts(Consumer<ProductSummary> consumer) {
+    try (Stream<ProductSummary> products = repo.streamActiveSummaries()) {
+      products.forEach(consumer);
+    }
+  }
+
+  private int pageSize(Integer size) {
+    return size == null || size <= 0 ? defaultPageSize : Math.min(size, maxPageSize);
+  }
+
+  private static ProductPage page(List<ProductSummary> products, int pageSize) {
+    String nextCursor = products.size() == pageSize ? products.get(products.size() - 1).id() : null;
+    return new ProductPage(products, nextCursor);
+  }
+
+  private Product save(Product product) {
+    Product saved = repo.save(product);
+    publisher.publishEvent(new ProductChangedEvent(saved, Change.CREATED));
+    return saved;
+  }
+
+  // Applies the change to the managed row so that dirty checking only writes
+  // the modified columns and never overwrites stock with a stale quantity. A
+  // write that raced another one is retried on a fresh copy
+  private Product update(String id, Change type, Consumer<Product> change) {
+    return retry.execute(() -> {
+      Product product = repo.findById(id).orElseThrow();
+      change.accept(product);
+      publisher.publishEvent(new ProductChangedEvent(product, type));
+      return product;
+    });
+  }
+
+  // Replaces values the client chose by looking at one version of the product,
+  // so it is refused once the product has moved on. A retry after a lost race
+  // sees the newer version and is refused too
+  private Product update(String id, long version, Change type, Consumer<Product> change) {
+    return retry.execute(() -> {
+      Product product = current(id, version);
+      change.accept(product);
+      publisher.publishEvent(new ProductChangedEvent(product, type));
+      return product;
+    });
+  }
+
+  private Product current(String id, long version) {
+    Product product = repo.findById(id).orElseThrow();
+    if (product.getVersion() != version) {
+      throw new VersionConflictException("Product " + id + " is at version " + product.getVersion()
+          + ", not " + version);
+    }
+    return product;
+  }
+
+  private Product reload(String id, Change type) {
+    Product product = repo.findById(id).orElseThrow();
+    publisher.publishEvent(new ProductChangedEvent(product, type));
+    return product;
+  }
 }
@@ -0,0 +1,10 @@
+package com.larr.app.e_commerce.service;
+
+import com.larr.app.e_commerce.model.StockReservation;
+
+/**
+ * Published by {@link CheckoutService} after the stock of a held reservation
+ * went back unpaid, so the payments still pending on it can be stopped.
+ */
+public record StockReservationReleasedEvent(StockReservation reservation) {
+}
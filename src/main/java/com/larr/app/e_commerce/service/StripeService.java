@@ -1,11 +1,16 @@
 package com.larr.app.e_commerce.service;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
 import com.larr.app.e_commerce.model.Cart;
 import com.larr.app.e_commerce.model.Payment;
 import com.larr.app.e_commerce.model.PaymentStatus;
+import com.larr.app.e_commerce.model.StockReservation;
 import com.larr.app.e_commerce.model.User;
 import com.larr.app.e_commerce.repository.PaymentRepository;
 import com.stripe.exception.StripeException;
@@ -18,8 +23,11 @@ import lombok.RequiredArgsConstructor;
 @Service
 @RequiredArgsConstructor
 public class StripeService {
+  private static final Logger logger = LoggerFactory.getLogger(StripeService.class);
+  private static final String METHOD = "stripe";
 
   private final PaymentRepository repository;
+  private final ApplicationEventPublisher publisher;
 
   @Value("${stripe.redirect.success}")
   private String successUrl;
@@ -28,8 +36,8 @@ public class StripeService {
   private String cancelUrl;
 
   @Transactional
-  public PaymentIntent createPaymentIntent(Double amount, String currency, User user, Cart cart)
-      throws StripeException {
+  public PaymentIntent createPaymentIntent(Double amount, String currency, User user, Cart cart,
+      StockReservation reservation) throws StripeException {
     // Convert Amount to Cents
     long amountInCents = (long) (amount * 100);
 
@@ -46,8 +54,9 @@ public class StripeService {
 
     Payment payment = new Payment();
     payment.setCart(cart);
+    payment.setReservation(reservation);
     payment.setUser(user);
-    payment.setMethod("stripe");
+    payment.setMethod(METHOD);
     payment.setCurrency(currency);
     payment.setTransactionId(intent.getId());
     payment.setStatus(PaymentStatus.pending);
@@ -58,22 +67,43 @@ public class StripeService {
     return intent;
   }
 
-  @Transactional
+  // Not transactional: the status is committed before checkout moves the stock
   public void confirmPayment(PaymentIntent intent) {
     Payment payment = repository.findByTransactionId(intent.getId())
         .orElseThrow(() -> new RuntimeException("Payment not found"));
+    // Stripe may deliver an event more than once
+    if (payment.getStatus() == PaymentStatus.completed) {
+      return;
+    }
     payment.setStatus(PaymentStatus.completed);
     payment.setProviderResponse(intent.toJson());
-    repository.save(payment);
-
+    publisher.publishEvent(new PaymentStatusChangedEvent(repository.save(payment)));
   }
 
-  @Transactional
   public void handleFailedPayment(PaymentIntent intent) {
     Payment payment = repository.findByTransactionId(intent.getId())
         .orElseThrow(() -> new RuntimeException("Payment not found"));
+    // Already settled, or cancelled here when its stock went back
+    if (payment.getStatus() != PaymentStatus.pending) {
+      return;
+    }
 
     payment.setStatus(PaymentStatus.failed);
-    repository.save(payment);
+    publisher.publishEvent(new PaymentStatusChangedEvent(repository.save(payment)));
+  }
+
+  // A payment still pending on stock that went back is cancelled; one that
+  // succeeded meanwhile takes the stock again when it is confirmed
+  @EventListener
+  public void onReservationReleased(StockReservationReleasedEvent event) {
+    for (Payment payment : repository.findByReservationIdAndMethodAndStatus(event.reservation().getId(), METHOD,
+        PaymentStatus.pending)) {
+      try {
+        PaymentIntent.retrieve(payment.getTransactionId()).cancel();
+        repository.transition(payment.getId(), PaymentStatus.pending, PaymentStatus.canceled);
+      } catch (StripeException e) {
+        logger.warn("Could not cancel payment intent {} after its stock went back", payment.getTransactionId(), e);
+      }
+    }
   }
-}
\ No newline at end of file
+}
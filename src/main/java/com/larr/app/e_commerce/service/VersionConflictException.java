@@ -0,0 +1,12 @@
+package com.larr.app.e_commerce.service;
+
+/**
+ * A client asked to change a row on the basis of a version that is no longer
+ * the current one. Unlike a lost optimistic lock it is never retried, since
+ * the client has to see the newer state before deciding again.
+ */
+public class VersionConflictException extends RuntimeException {
+  public VersionConflictException(String message) {
+    super(message);
+  }
+}
@@ -0,0 +1,172 @@
+package com.larr.app.e_commerce.service.feed;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.larr.app.e_commerce.dto.ProductChange;
+import com.larr.app.e_commerce.model.Product;
+import com.larr.app.e_commerce.service.ProductChangedEvent;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * In-process feed of committed product changes, served over server-sent events.
+ *
+ * Changes get increasing sequence numbers and are kept in a ring buffer of the
+ * most recent ones. A subscriber passes the last sequence it saw and is first
+ * sent everything after it that is still in the ring; when the ring no longer
+ * reaches back that far it gets a {@code reset} event instead and should reload
+ * what it caches. Sequences start from the startup time, so ids from an earlier
+ * run always fall before the ring and lead to a reset as well.
+ *
+ * Each subscriber has a bounded queue drained by a shared pool, so a slow
+ * client never holds up publishing or other clients. A client that falls a
+ * whole ring behind is disconnected and resumes from its last event id.
+ */
+@Component
+public class ProductChangeFeed {
+  private static final Logger logger = LoggerFactory.getLogger(ProductChangeFeed.class);
+  private static final ProductChange HEARTBEAT = new ProductChange(0, null, null, null, 0, 0, null, null, false);
+
+  private final ProductChange[] ring;
+  private final long timeoutMs;
+  private final ExecutorService executor;
+  private final Map<SseEmitter, Subscriber> subscribers = new ConcurrentHashMap<>();
+
+  private final long firstSequence = System.currentTimeMillis() * 1000 + 1;
+  // Guarded by this
+  private long lastSequence = firstSequence - 1;
+
+  public ProductChangeFeed(@Value("${products.feed.capacity:4096}") int capacity,
+      @Value("${products.feed.timeout-ms:1800000}") long timeoutMs,
+      @Value("${products.feed.threads:4}") int threads) {
+    this.ring = new ProductChange[capacity];
+    this.timeoutMs = timeoutMs;
+    this.executor = Executors.newFixedThreadPool(threads, Thread.ofPlatform().name("product-feed-", 0)
+        .daemon().factory());
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdownNow();
+    subscribers.keySet().forEach(SseEmitter::complete);
+  }
+
+  @TransactionalEventListener(fallbackExecution = true)
+  public void onProductChanged(ProductChangedEvent event) {
+    Product product = event.product();
+    synchronized (this) {
+      ProductChange change = new ProductChange(++lastSequence, event.change().name(), product.getId(),
+          product.getName(), product.getPrice(), product.getQuantity(), product.getImgUrl(),
+          product.getCategory() == null ? null : product.getCategory().getId(), product.isActive());
+      ring[(int) (lastSequence % ring.length)] = change;
+      subscribers.values().forEach(subscriber -> subscriber.offer(change));
+    }
+  }
+
+  /**
+   * Opens a subscription that resumes after the given sequence, or starts with
+   * the next change when it is null.
+   */
+  public SseEmitter subscribe(Long since) {
+    SseEmitter emitter = new SseEmitter(timeoutMs);
+    Subscriber subscriber = new Subscriber(emitter);
+    emitter.onCompletion(() -> subscribers.remove(emitter));
+    emitter.onTimeout(() -> subscribers.remove(emitter));
+    emitter.onError(e -> subscribers.remove(emitter));
+
+    synchronized (this) {
+      long oldest = Math.max(lastSequence - ring.length + 1, firstSequence);
+      if (since != null && (since < oldest - 1 || since > lastSequence)) {
+        subscriber.reset = lastSequence;
+      } else if (since != null) {
+        for (long sequence = since + 1; sequence <= lastSequence; sequence++) {
+          subscriber.offer(ring[(int) (sequence % ring.length)]);
+        }
+      }
+      subscribers.put(emitter, subscriber);
+    }
+    subscriber.schedule();
+    return emitter;
+  }
+
+  // Keeps idle connections open through proxies and finds dead clients
+  @Scheduled(fixedDelayString = "${products.feed.heartbeat-ms:15000}")
+  public void heartbeat() {
+    subscribers.values().forEach(subscriber -> subscriber.offer(HEARTBEAT));
+  }
+
+  private final class Subscriber implements Runnable {
+    private final SseEmitter emitter;
+    private final BlockingQueue<ProductChange> queue = new ArrayBlockingQueue<>(ring.length);
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile Long reset;
+
+    Subscriber(SseEmitter emitter) {
+      this.emitter = emitter;
+    }
+
+    void offer(ProductChange change) {
+      if (!queue.offer(change)) {
+        if (change != HEARTBEAT) {
+          logger.debug("Dropping product feed subscriber that fell {} changes behind", ring.length);
+          subscribers.remove(emitter);
+          emitter.complete();
+        }
+        return;
+      }
+      schedule();
+    }
+
+    void schedule() {
+      if (scheduled.compareAndSet(false, true)) {
+        executor.execute(this);
+      }
+    }
+
+    @Override
+    public void run() {
+      try {
+        Long resetTo = reset;
+        if (resetTo != null) {
+          reset = null;
+          emitter.send(SseEmitter.event().id(Long.toString(resetTo)).name("reset").data(resetTo));
+        }
+        ProductChange change;
+        while ((change = queue.poll()) != null) {
+          if (change == HEARTBEAT) {
+            emitter.send(SseEmitter.event().comment("heartbeat"));
+          } else {
+            emitter.send(SseEmitter.event().id(Long.toString(change.sequence())).name("product")
+                .data(change, MediaType.APPLICATION_JSON));
+          }
+        }
+      } catch (IOException | IllegalStateException e) {
+        // The client went away
+        subscribers.remove(emitter);
+        queue.clear();
+        emitter.completeWithError(e);
+      } finally {
+        scheduled.set(false);
+        if (!queue.isEmpty() && subscribers.containsKey(emitter)) {
+          schedule();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,311 @@
+package com.larr.app.e_commerce.service.search;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.larr.app.e_commerce.dto.ProductFacetResult;
+import com.larr.app.e_commerce.model.Category;
+import com.larr.app.e_commerce.model.Product;
+import com.larr.app.e_commerce.repository.ProductRepository;
+import com.larr.app.e_commerce.service.CategoryChangedEvent;
+import com.larr.app.e_commerce.service.ProductChangedEvent;
+
+import jakarta.persistence.EntityManager;
+
+/**
+ * In-memory filter indexes over the whole catalog, inactive products included.
+ *
+ * Every product owns a slot; category, stock and active state are bitsets over
+ * the slots and prices are a sorted map to the slots at each price. A query is
+ * a handful of bitset intersections, so filter combinations never reach SQL.
+ *
+ * A product event older than the version already indexed is dropped, since
+ * events of concurrent commits can arrive in either order. Events that arrive
+ * while a rebuild scans the table are replayed onto its result before it is
+ * swapped in.
+ */
+@Component
+public class ProductFacetIndex {
+  private static final Logger logger = LoggerFactory.getLogger(ProductFacetIndex.class);
+
+  private final ProductRepository repo;
+  private final EntityManager entityManager;
+  private final TransactionTemplate transactionTemplate;
+  private final double[] priceBandEdges;
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private Slots slots = new Slots();
+  // Changes seen while a rebuild runs, null otherwise
+  private List<Consumer<Slots>> missed;
+
+  public ProductFacetIndex(ProductRepository repo, EntityManager entityManager,
+      PlatformTransactionManager transactionManager,
+      @Value("${products.facets.price-bands:10,25,50,100,250,500}") double[] priceBandEdges) {
+    this.repo = repo;
+    this.entityManager = entityManager;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.transactionTemplate.setReadOnly(true);
+    this.priceBandEdges = priceBandEdges;
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void rebuild() {
+    Slots rebuilt = new Slots();
+    lock.writeLock().lock();
+    try {
+      missed = new ArrayList<>();
+    } finally {
+      lock.writeLock().unlock();
+    }
+
+    try {
+      transactionTemplate.executeWithoutResult(status -> {
+        try (Stream<Product> products = repo.streamAll()) {
+          products.forEach(product -> {
+            rebuilt.put(product);
+            entityManager.detach(product);
+          });
+        }
+      });
+    } catch (RuntimeException e) {
+      lock.writeLock().lock();
+      try {
+        missed = null;
+      } finally {
+        lock.writeLock().unlock();
+      }
+      throw e;
+    }
+
+    lock.writeLock().lock();
+    try {
+      // The scan may not have seen them; older products lose to its versions
+      missed.forEach(change -> change.accept(rebuilt));
+      missed = null;
+      slots = rebuilt;
+    } finally {
+      lock.writeLock().unlock();
+    }
+    logger.info("Product facet index built with {} products", rebuilt.slotById.size());
+  }
+
+  @TransactionalEventListener(fallbackExecution = true)
+  public void onProductChanged(ProductChangedEvent event) {
+    Product product = event.product();
+    apply(target -> target.put(product));
+  }
+
+  @TransactionalEventListener(fallbackExecution = true)
+  public void onCategoryChanged(CategoryChangedEvent event) {
+    Category category = event.category();
+    apply(target -> target.categoryNames.put(category.getId(), category.getName()));
+  }
+
+  private void apply(Consumer<Slots> change) {
+    lock.writeLock().lock();
+    try {
+      if (missed != null) {
+        missed.add(change);
+      }
+      change.accept(slots);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Filters on any combination of price range (inclusive), category name, stock
+   * and active state; null means no filter. Returns the requested page in slot
+   * order together with the facet counts.
+   */
+  public ProductFacetResult query(Double minPrice, Double maxPrice, String category, Boolean inStock,
+      Boolean active, int page, int size) {
+    lock.readLock().lock();
+    try {
+      BitSet priceFilter = minPrice == null && maxPrice == null ? null : slots.priceRange(minPrice, maxPrice);
+      BitSet categoryFilter = category == null ? null : slots.category(category);
+      BitSet stockFilter = inStock == null ? null : slots.stock(inStock);
+      BitSet activeFilter = active == null ? null : slots.active(active);
+
+      BitSet matches = slots.all(priceFilter, categoryFilter, stockFilter, activeFilter);
+
+      List<Product> products = new ArrayList<>(size);
+      // Wide enough that no page number overflows; a page past the end is empty
+      long skip = (long) page * size;
+      for (int slot = matches.nextSetBit(0); slot >= 0 && products.size() < size; slot = matches.nextSetBit(slot + 1)) {
+        if (skip > 0) {
+          skip--;
+        } else {
+          products.add(slots.products.get(slot));
+        }
+      }
+
+      BitSet withoutCategory = slots.all(priceFilter, null, stockFilter, activeFilter);
+      Map<String, Integer> categories = new TreeMap<>();
+      slots.byCategory.forEach((categoryId, members) -> {
+        int count = intersectionSize(withoutCategory, members);
+        if (count > 0) {
+          categories.put(slots.categoryNames.getOrDefault(categoryId, categoryId), count);
+        }
+      });
+
+      BitSet withoutStock = slots.all(priceFilter, categoryFilter, null, activeFilter);
+      int inStockCount = intersectionSize(withoutStock, slots.inStock);
+
+      BitSet withoutPrice = slots.all(null, categoryFilter, stockFilter, activeFilter);
+      Map<String, Integer> priceBands = new LinkedHashMap<>();
+      double lower = 0;
+      for (double upper : priceBandEdges) {
+        priceBands.put(bandLabel(lower, upper), intersectionSize(withoutPrice, slots.priceRange(lower, upper, false)));
+        lower = upper;
+      }
+      priceBands.put(bandLabel(lower, Double.NaN), intersectionSize(withoutPrice, slots.priceRange(lower, null)));
+
+      return new ProductFacetResult(matches.cardinality(), products, categories, priceBands, inStockCount,
+          withoutStock.cardinality() - inStockCount);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private static int intersectionSize(BitSet a, BitSet b) {
+    BitSet intersection = (BitSet) a.clone();
+    intersection.and(b);
+    return intersection.cardinality();
+  }
+
+  private static String bandLabel(double lower, double upper) {
+    return Double.isNaN(upper) ? format(lower) + "+" : format(lower) + "-" + format(upper);
+  }
+
+  private static String format(double value) {
+    return value == Math.rint(value) ? Long.toString((long) value) : Double.toString(value);
+  }
+
+  /**
+   * The indexed state. Only touched under the lock of the enclosing index.
+   */
+  private static final class Slots {
+    private final Map<String, Integer> slotById = new HashMap<>();
+    private final List<Product> products = new ArrayList<>();
+    private final BitSet occupied = new BitSet();
+    private final BitSet active = new BitSet();
+    private final BitSet inStock = new BitSet();
+    private final Map<String, BitSet> byCategory = new HashMap<>();
+    private final Map<String, String> categoryNames = new HashMap<>();
+    private final NavigableMap<Double, Set<Integer>> byPrice = new TreeMap<>();
+
+    void put(Product product) {
+      Integer slot = slotById.get(product.getId());
+      if (slot == null) {
+        // Products are only ever deactivated, so slots are never given back
+        slot = products.size();
+        products.add(null);
+        slotById.put(product.getId(), slot);
+      } else if (product.getVersion() < products.get(slot).getVersion()) {
+        return;
+      } else {
+        clear(slot, products.get(slot));
+      }
+
+      products.set(slot, product);
+      occupied.set(slot);
+      active.set(slot, product.isActive());
+      inStock.set(slot, product.getQuantity() > 0);
+      Category category = product.getCategory();
+      if (category != null) {
+        byCategory.computeIfAbsent(category.getId(), id -> new BitSet()).set(slot);
+        categoryNames.put(category.getId(), category.getName());
+      }
+      byPrice.computeIfAbsent(product.getPrice(), price -> new HashSet<>()).add(slot);
+    }
+
+    private void clear(int slot, Product previous) {
+      if (previous.getCategory() != null) {
+        BitSet members = byCategory.get(previous.getCategory().getId());
+        if (members != null) {
+          members.clear(slot);
+        }
+      }
+      Set<Integer> atPrice = byPrice.get(previous.getPrice());
+      if (atPrice != null) {
+        atPrice.remove(slot);
+        if (atPrice.isEmpty()) {
+          byPrice.remove(previous.getPrice());
+        }
+      }
+    }
+
+    BitSet priceRange(Double min, Double max) {
+      return priceRange(min == null ? Double.NEGATIVE_INFINITY : min,
+          max == null ? Double.POSITIVE_INFINITY : max, true);
+    }
+
+    BitSet priceRange(double min, double max, boolean maxInclusive) {
+      BitSet matches = new BitSet();
+      if (min > max) {
+        return matches;
+      }
+      for (Set<Integer> atPrice : byPrice.subMap(min, true, max, maxInclusive).values()) {
+        atPrice.forEach(matches::set);
+      }
+      return matches;
+    }
+
+    BitSet category(String name) {
+      BitSet matches = new BitSet();
+      categoryNames.forEach((id, categoryName) -> {
+        if (name.equalsIgnoreCase(categoryName) && byCategory.containsKey(id)) {
+          matches.or(byCategory.get(id));
+        }
+      });
+      return matches;
+    }
+
+    BitSet stock(boolean wanted) {
+      return wanted ? inStock : without(inStock);
+    }
+
+    BitSet active(boolean wanted) {
+      return wanted ? active : without(active);
+    }
+
+    private BitSet without(BitSet set) {
+      BitSet complement = (BitSet) occupied.clone();
+      complement.andNot(set);
+      return complement;
+    }
+
+    BitSet all(BitSet... filters) {
+      BitSet result = (BitSet) occupied.clone();
+      for (BitSet filter : filters) {
+        if (filter != null) {
+          result.and(filter);
+        }
+      }
+      return result;
+    }
+  }
+}
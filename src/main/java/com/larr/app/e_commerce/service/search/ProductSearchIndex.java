@@ -0,0 +1,312 @@
+package com.larr.app.e_commerce.service.search;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.larr.app.e_commerce.model.Product;
+import com.larr.app.e_commerce.repository.ProductRepository;
+import com.larr.app.e_commerce.service.ProductChangedEvent;
+
+import jakarta.persistence.EntityManager;
+
+/**
+ * In-memory inverted index over the names and descriptions of active products.
+ *
+ * Terms are case folded and split on anything that is not a letter or a digit.
+ * Every query term has to match; the last one also matches as a prefix so the
+ * index can answer search-as-you-type. Name hits weigh more than description
+ * hits when ranking.
+ *
+ * Names are also kept in a {@link TrigramIndex} for the fuzzy mode, which
+ * still finds products when the query is misspelled.
+ *
+ * Change events of concurrent commits can arrive in either order, so one older
+ * than the version already indexed is dropped. Events that arrive while a
+ * rebuild scans the table are replayed onto its result before it is swapped
+ * in.
+ */
+@Component
+public class ProductSearchIndex {
+  private static final Logger logger = LoggerFactory.getLogger(ProductSearchIndex.class);
+
+  private static final int NAME_WEIGHT = 3;
+  private static final int DESCRIPTION_WEIGHT = 1;
+
+  private final ProductRepository repo;
+  private final EntityManager entityManager;
+  private final TransactionTemplate transactionTemplate;
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  // product id -> indexed product
+  private Map<String, Product> documents = new HashMap<>();
+  // term -> (product id -> weight), sorted so prefixes are a sub map
+  private NavigableMap<String, Map<String, Integer>> postings = new TreeMap<>();
+  private TrigramIndex trigrams = new TrigramIndex();
+  // product id -> version last indexed, deactivated products included
+  private Map<String, Long> versions = new HashMap<>();
+  // Changes seen while a rebuild runs, null otherwise
+  private List<Product> missed;
+
+  @Value("${products.search.fuzzy.min-similarity:0.3}")
+  private double minSimilarity;
+
+  public ProductSearchIndex(ProductRepository repo, EntityManager entityManager,
+      PlatformTransactionManager transactionManager) {
+    this.repo = repo;
+    this.entityManager = entityManager;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.transactionTemplate.setReadOnly(true);
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void rebuild() {
+    Map<String, Product> newDocuments = new HashMap<>();
+    NavigableMap<String, Map<String, Integer>> newPostings = new TreeMap<>();
+    TrigramIndex newTrigrams = new TrigramIndex();
+    Map<String, Long> newVersions = new HashMap<>();
+
+    lock.writeLock().lock();
+    try {
+      missed = new ArrayList<>();
+    } finally {
+      lock.writeLock().unlock();
+    }
+
+    try {
+      transactionTemplate.executeWithoutResult(status -> {
+        try (Stream<Product> products = repo.streamAllActive()) {
+          products.forEach(product -> {
+            add(product, newDocuments, newPostings);
+            newTrigrams.add(product.getId(), product.getName());
+            newVersions.put(product.getId(), product.getVersion());
+            entityManager.detach(product);
+          });
+        }
+      });
+    } catch (RuntimeException e) {
+      lock.writeLock().lock();
+      try {
+        missed = null;
+      } finally {
+        lock.writeLock().unlock();
+      }
+      throw e;
+    }
+
+    lock.writeLock().lock();
+    try {
+      documents = newDocuments;
+      postings = newPostings;
+      trigrams = newTrigrams;
+      versions = newVersions;
+      // The scan may not have seen them; older ones lose to its versions
+      missed.forEach(this::apply);
+      missed = null;
+    } finally {
+      lock.writeLock().unlock();
+    }
+    logger.info("Product search index built with {} products and {} terms", newDocuments.size(),
+        newPostings.size());
+  }
+
+  @TransactionalEventListener(fallbackExecution = true)
+  public void onProductChanged(ProductChangedEvent event) {
+    Product product = event.product();
+
+    lock.writeLock().lock();
+    try {
+      if (missed != null) {
+        missed.add(product);
+      }
+      apply(product);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Returns at most {@code limit} active products matching every term of the
+   * query, best match first.
+   */
+  public List<Product> search(String query, int limit) {
+    List<String> terms = tokenize(query);
+    if (terms.isEmpty()) {
+      return List.of();
+    }
+
+    lock.readLock().lock();
+    try {
+      Map<String, Integer> scores = null;
+      for (int i = 0; i < terms.size(); i++) {
+        boolean prefix = i == terms.size() - 1;
+        Map<String, Integer> matches = match(terms.get(i), prefix);
+
+        if (scores == null) {
+          scores = matches;
+        } else {
+          Map<String, Integer> previous = scores;
+          scores = new HashMap<>();
+          for (Map.Entry<String, Integer> entry : matches.entrySet()) {
+            Integer score = previous.get(entry.getKey());
+            if (score != null) {
+              scores.put(entry.getKey(), score + entry.getValue());
+            }
+          }
+        }
+        if (scores.isEmpty()) {
+          return List.of();
+        }
+      }
+
+      Map<String, Integer> ranked = scores;
+      return ranked.keySet().stream()
+          .map(documents::get)
+          .sorted(Comparator.<Product>comparingInt(product -> ranked.get(product.getId())).reversed()
+              .thenComparing(Product::getName, Comparator.nullsLast(String.CASE_INSENSITIVE_ORDER)))
+          .limit(limit)
+          .toList();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns at most {@code limit} active products whose names share enough
+   * trigrams with the query, most similar first. Tolerates typos, at the cost
+   * of also returning near misses.
+   */
+  public List<Product> fuzzySearch(String query, int limit) {
+    lock.readLock().lock();
+    try {
+      return trigrams.search(query, limit, minSimilarity).stream()
+          .map(match -> documents.get(match.id()))
+          .toList();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return documents.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  // Stock, price and image changes only replace the product handed out; the
+  // terms and the trigrams, whose removals leave tombstones, are left alone.
+  // Called under the write lock
+  private void apply(Product product) {
+    Long indexed = versions.get(product.getId());
+    if (indexed != null && product.getVersion() < indexed) {
+      return;
+    }
+    versions.put(product.getId(), product.getVersion());
+
+    Product previous = documents.get(product.getId());
+    boolean sameName = previous != null && product.isActive()
+        && Objects.equals(previous.getName(), product.getName());
+    if (sameName && Objects.equals(previous.getDescription(), product.getDescription())) {
+      documents.put(product.getId(), product);
+      return;
+    }
+    remove(product.getId(), documents, postings);
+    if (!sameName) {
+      trigrams.remove(product.getId());
+    }
+    if (product.isActive()) {
+      add(product, documents, postings);
+      if (!sameName) {
+        trigrams.add(product.getId(), product.getName());
+      }
+    }
+  }
+
+  // product id -> score for one query term; exact hits score double
+  private Map<String, Integer> match(String term, boolean prefix) {
+    Map<String, Integer> matches = new HashMap<>();
+    Map<String, Map<String, Integer>> terms = prefix
+        ? postings.subMap(term, true, term + Character.MAX_VALUE, false)
+        : postings.containsKey(term) ? Map.of(term, postings.get(term)) : Map.of();
+
+    for (Map.Entry<String, Map<String, Integer>> entry : terms.entrySet()) {
+      int factor = entry.getKey().equals(term) ? 2 : 1;
+      for (Map.Entry<String, Integer> posting : entry.getValue().entrySet()) {
+        matches.merge(posting.getKey(), posting.getValue() * factor, Math::max);
+      }
+    }
+    return matches;
+  }
+
+  private static void add(Product product, Map<String, Product> documents,
+      NavigableMap<String, Map<String, Integer>> postings) {
+    documents.put(product.getId(), product);
+    for (Map.Entry<String, Integer> term : weightedTerms(product).entrySet()) {
+      postings.computeIfAbsent(term.getKey(), key -> new HashMap<>()).put(product.getId(), term.getValue());
+    }
+  }
+
+  private static void remove(String id, Map<String, Product> documents,
+      NavigableMap<String, Map<String, Integer>> postings) {
+    Product previous = documents.remove(id);
+    if (previous == null) {
+      return;
+    }
+    for (String term : weightedTerms(previous).keySet()) {
+      Map<String, Integer> ids = postings.get(term);
+      if (ids != null) {
+        ids.remove(id);
+        if (ids.isEmpty()) {
+          postings.remove(term);
+        }
+      }
+    }
+  }
+
+  private static Map<String, Integer> weightedTerms(Product product) {
+    Map<String, Integer> terms = new HashMap<>();
+    for (String term : new HashSet<>(tokenize(product.getDescription()))) {
+      terms.put(term, DESCRIPTION_WEIGHT);
+    }
+    for (String term : new HashSet<>(tokenize(product.getName()))) {
+      terms.merge(term, NAME_WEIGHT, Integer::sum);
+    }
+    return terms;
+  }
+
+  static List<String> tokenize(String text) {
+    List<String> terms = new ArrayList<>();
+    if (text == null) {
+      return terms;
+    }
+    for (String term : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{Nd}]+")) {
+      if (!term.isEmpty()) {
+        terms.add(term);
+      }
+    }
+    return terms;
+  }
+}
@@ -0,0 +1,193 @@
+package com.larr.app.e_commerce.service.search;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.larr.app.e_commerce.dto.ProductSuggestion;
+import com.larr.app.e_commerce.model.Product;
+import com.larr.app.e_commerce.repository.ProductRepository;
+import com.larr.app.e_commerce.service.ProductChangedEvent;
+
+import jakarta.persistence.EntityManager;
+
+/**
+ * Name completion for search-as-you-type over the active catalog.
+ *
+ * Names are kept case folded in a sorted skip list, so the names starting with
+ * a prefix are one contiguous range found by a binary descent. Up to a fixed
+ * number of entries of that range are scanned and the most viewed ones are
+ * returned, which keeps a one-letter prefix as cheap as a long one. Reads take
+ * no lock; writes come from committed product changes.
+ *
+ * A change event older than the version already held is dropped, since events
+ * of concurrent commits can arrive in either order. A rebuild fills a new set
+ * of names and swaps it in whole, after replaying the events that arrived
+ * while it scanned the table, so names that went inactive meanwhile are gone.
+ */
+@Component
+public class ProductSuggester {
+  private static final Logger logger = LoggerFactory.getLogger(ProductSuggester.class);
+  // Sorts below every other character, so "abc" + separator + id comes right
+  // before the names that extend "abc"
+  private static final char SEPARATOR = '\u0000';
+
+  private final ProductRepository repo;
+  private final EntityManager entityManager;
+  private final TransactionTemplate transactionTemplate;
+  private final int scanLimit;
+
+  // Written under this, read without a lock
+  private volatile Names current = new Names();
+  private final Map<String, LongAdder> views = new ConcurrentHashMap<>();
+  // Changes seen while a rebuild runs, null otherwise. Guarded by this
+  private List<Product> missed;
+
+  public ProductSuggester(ProductRepository repo, EntityManager entityManager,
+      PlatformTransactionManager transactionManager,
+      @Value("${products.suggest.scan-limit:1000}") int scanLimit) {
+    this.repo = repo;
+    this.entityManager = entityManager;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.transactionTemplate.setReadOnly(true);
+    this.scanLimit = scanLimit;
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void rebuild() {
+    synchronized (this) {
+      missed = new ArrayList<>();
+    }
+
+    Names rebuilt = new Names();
+    try {
+      transactionTemplate.executeWithoutResult(status -> {
+        try (Stream<Product> products = repo.streamAllActive()) {
+          products.forEach(product -> {
+            rebuilt.apply(product);
+            entityManager.detach(product);
+          });
+        }
+      });
+    } catch (RuntimeException e) {
+      synchronized (this) {
+        missed = null;
+      }
+      throw e;
+    }
+
+    synchronized (this) {
+      // The scan may not have seen them; older ones lose to its versions
+      missed.forEach(rebuilt::apply);
+      missed = null;
+      current = rebuilt;
+      views.keySet().retainAll(rebuilt.keys.keySet());
+    }
+    logger.info("Product suggester built with {} names", rebuilt.names.size());
+  }
+
+  @TransactionalEventListener(fallbackExecution = true)
+  public synchronized void onProductChanged(ProductChangedEvent event) {
+    Product product = event.product();
+    if (missed != null) {
+      missed.add(product);
+    }
+    if (!current.apply(product)) {
+      views.remove(product.getId());
+    }
+  }
+
+  public void recordView(String productId) {
+    if (current.keys.containsKey(productId)) {
+      views.computeIfAbsent(productId, id -> new LongAdder()).increment();
+    }
+  }
+
+  /**
+   * Returns up to limit active products whose name starts with the prefix,
+   * ignoring case, most viewed first and then alphabetically.
+   */
+  public List<ProductSuggestion> suggest(String prefix, int limit) {
+    String from = fold(prefix);
+    if (from.isEmpty()) {
+      return List.of();
+    }
+
+    List<ProductSuggestion> candidates = new ArrayList<>();
+    for (ProductSuggestion suggestion : current.names.subMap(from, from + Character.MAX_VALUE).values()) {
+      candidates.add(suggestion);
+      if (candidates.size() == scanLimit) {
+        break;
+      }
+    }
+    // Candidates are already in name order, and the sort is stable
+    candidates.sort(Comparator.comparingLong(this::viewCount).reversed());
+    return candidates.size() > limit ? List.copyOf(candidates.subList(0, limit)) : candidates;
+  }
+
+  private long viewCount(ProductSuggestion suggestion) {
+    LongAdder count = views.get(suggestion.id());
+    return count == null ? 0 : count.sum();
+  }
+
+  private static String fold(String text) {
+    return text.strip().toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * One generation of suggestions. Written under the lock of the enclosing
+   * suggester, or before it is published.
+   */
+  private static final class Names {
+    // folded name + separator + product id -> suggestion
+    private final ConcurrentNavigableMap<String, ProductSuggestion> names = new ConcurrentSkipListMap<>();
+    // product id -> its key in names
+    private final Map<String, String> keys = new ConcurrentHashMap<>();
+    // product id -> version last applied, deactivated products included
+    private final Map<String, Long> versions = new HashMap<>();
+
+    // Returns whether the product is suggested afterwards
+    boolean apply(Product product) {
+      String id = product.getId();
+      Long applied = versions.get(id);
+      if (applied != null && product.getVersion() < applied) {
+        return keys.containsKey(id);
+      }
+      versions.put(id, product.getVersion());
+
+      if (!product.isActive() || product.getName() == null) {
+        String previous = keys.remove(id);
+        if (previous != null) {
+          names.remove(previous);
+        }
+        return false;
+      }
+      // The new entry goes in first, so a renamed product is never missing
+      String key = fold(product.getName()) + SEPARATOR + id;
+      names.put(key, new ProductSuggestion(id, product.getName()));
+      String previous = keys.put(id, key);
+      if (previous != null && !previous.equals(key)) {
+        names.remove(previous);
+      }
+      return true;
+    }
+  }
+}
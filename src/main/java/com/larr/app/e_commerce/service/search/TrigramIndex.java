@@ -0,0 +1,216 @@
+package com.larr.app.e_commerce.service.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Trigram posting lists for typo tolerant matching of short texts.
+ *
+ * Every word is padded with two spaces in front and one behind, as pg_trgm
+ * does, and cut into overlapping three character grams. A query scores each
+ * text by the share of trigrams the two have in common (shared divided by the
+ * union), so a swapped or missing letter costs a few trigrams instead of the
+ * whole match. Documents are dense int slots; removed ones are tombstoned and
+ * the lists are compacted once tombstones outnumber the live documents.
+ *
+ * A text can only reach the minimum similarity s if it shares at least s times
+ * the query's trigrams, so candidates only come from the rarest lists, enough
+ * that missing all of them rules a text out. The more common lists are then
+ * only probed for those candidates, by binary search while that is cheaper
+ * than a scan; lists are sorted because slots are handed out in order.
+ *
+ * Not thread safe; {@link ProductSearchIndex} guards it with its lock. Queries
+ * only read the index, so they may run concurrently with each other.
+ */
+public class TrigramIndex {
+  private static final int MIN_COMPACTION = 1024;
+
+  public record Match(String id, double similarity) {
+  }
+
+  private final Map<String, IntList> postings = new HashMap<>();
+  private final Map<String, Integer> slots = new HashMap<>();
+  private final List<String> ids = new ArrayList<>();
+  private final List<String> texts = new ArrayList<>();
+  private int[] trigramCounts = new int[1024];
+  private final BitSet removed = new BitSet();
+  private int removedCount;
+
+  // Tallies of shared trigrams, one per concurrent query and zeroed after use
+  private final Queue<int[]> scratch = new ConcurrentLinkedQueue<>();
+
+  public void add(String id, String text) {
+    remove(id);
+    Set<String> trigrams = trigrams(text);
+    int slot = ids.size();
+    ids.add(id);
+    texts.add(text);
+    slots.put(id, slot);
+    if (slot == trigramCounts.length) {
+      trigramCounts = Arrays.copyOf(trigramCounts, slot * 2);
+    }
+    trigramCounts[slot] = trigrams.size();
+    for (String trigram : trigrams) {
+      postings.computeIfAbsent(trigram, key -> new IntList()).add(slot);
+    }
+  }
+
+  public void remove(String id) {
+    Integer slot = slots.remove(id);
+    if (slot == null) {
+      return;
+    }
+    removed.set(slot);
+    texts.set(slot, null);
+    removedCount++;
+    if (removedCount > MIN_COMPACTION && removedCount > slots.size()) {
+      compact();
+    }
+  }
+
+  public int size() {
+    return slots.size();
+  }
+
+  /**
+   * Returns at most limit documents sharing at least minSimilarity of their
+   * trigrams with the query, most similar first.
+   */
+  public List<Match> search(String query, int limit, double minSimilarity) {
+    Set<String> queryTrigrams = trigrams(query);
+    if (queryTrigrams.isEmpty() || limit <= 0) {
+      return List.of();
+    }
+
+    int[] shared = scratch.poll();
+    if (shared == null || shared.length < ids.size()) {
+      shared = new int[trigramCounts.length];
+    }
+    try {
+      return search(queryTrigrams.size(), tally(queryTrigrams, shared, minSimilarity), shared, limit,
+          minSimilarity);
+    } finally {
+      scratch.offer(shared);
+    }
+  }
+
+  // Counts the shared query trigrams of every candidate slot; returns those slots
+  private IntList tally(Set<String> queryTrigrams, int[] shared, double minSimilarity) {
+    List<IntList> lists = new ArrayList<>(queryTrigrams.size());
+    for (String trigram : queryTrigrams) {
+      IntList slotsWithTrigram = postings.get(trigram);
+      if (slotsWithTrigram != null) {
+        lists.add(slotsWithTrigram);
+      }
+    }
+    lists.sort(Comparator.comparingInt(list -> list.size));
+
+    int required = Math.max(1, (int) Math.ceil(minSimilarity * queryTrigrams.size()));
+    int candidateLists = lists.size() - required + 1;
+    IntList touched = new IntList();
+    for (int l = 0; l < candidateLists; l++) {
+      IntList list = lists.get(l);
+      for (int i = 0; i < list.size; i++) {
+        int slot = list.values[i];
+        if (shared[slot]++ == 0) {
+          touched.add(slot);
+        }
+      }
+    }
+
+    for (int l = Math.max(candidateLists, 0); l < lists.size() && touched.size > 0; l++) {
+      IntList list = lists.get(l);
+      if ((long) touched.size * (32 - Integer.numberOfLeadingZeros(list.size)) < list.size) {
+        for (int i = 0; i < touched.size; i++) {
+          int slot = touched.values[i];
+          if (Arrays.binarySearch(list.values, 0, list.size, slot) >= 0) {
+            shared[slot]++;
+          }
+        }
+      } else {
+        for (int i = 0; i < list.size; i++) {
+          int slot = list.values[i];
+          if (shared[slot] > 0) {
+            shared[slot]++;
+          }
+        }
+      }
+    }
+    return touched;
+  }
+
+  private List<Match> search(int queryTrigrams, IntList touched, int[] shared, int limit, double minSimilarity) {
+    PriorityQueue<Match> best = new PriorityQueue<>(Comparator.comparingDouble(Match::similarity));
+    for (int i = 0; i < touched.size; i++) {
+      int slot = touched.values[i];
+      int common = shared[slot];
+      shared[slot] = 0;
+      if (removed.get(slot)) {
+        continue;
+      }
+      double similarity = (double) common / (queryTrigrams + trigramCounts[slot] - common);
+      if (similarity >= minSimilarity && (best.size() < limit || similarity > best.peek().similarity())) {
+        best.add(new Match(ids.get(slot), similarity));
+        if (best.size() > limit) {
+          best.poll();
+        }
+      }
+    }
+
+    List<Match> matches = new ArrayList<>(best);
+    matches.sort(Comparator.comparingDouble(Match::similarity).reversed());
+    return matches;
+  }
+
+  private void compact() {
+    List<String> liveIds = new ArrayList<>(slots.size());
+    List<String> liveTexts = new ArrayList<>(slots.size());
+    for (int slot = removed.nextClearBit(0); slot < ids.size(); slot = removed.nextClearBit(slot + 1)) {
+      liveIds.add(ids.get(slot));
+      liveTexts.add(texts.get(slot));
+    }
+
+    postings.clear();
+    slots.clear();
+    ids.clear();
+    texts.clear();
+    removed.clear();
+    removedCount = 0;
+    for (int i = 0; i < liveIds.size(); i++) {
+      add(liveIds.get(i), liveTexts.get(i));
+    }
+  }
+
+  static Set<String> trigrams(String text) {
+    Set<String> trigrams = new LinkedHashSet<>();
+    for (String word : ProductSearchIndex.tokenize(text)) {
+      String padded = "  " + word + " ";
+      for (int i = 0; i + 3 <= padded.length(); i++) {
+        trigrams.add(padded.substring(i, i + 3));
+      }
+    }
+    return trigrams;
+  }
+
+  private static final class IntList {
+    private int[] values = new int[4];
+    private int size;
+
+    void add(int value) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = value;
+    }
+  }
+}
@@ -0,0 +1,637 @@
+package com.larr.app.e_commerce.service.stock;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.larr.app.e_commerce.model.HotStockFlush;
+import com.larr.app.e_commerce.model.Product;
+import com.larr.app.e_commerce.repository.HotStockFlushRepository;
+import com.larr.app.e_commerce.repository.ProductRepository;
+import com.larr.app.e_commerce.service.ProductChangedEvent;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Opt-in in-memory stock for "hot" products during flash sales.
+ *
+ * The available stock of a hot product is split over a few stripes of atomic
+ * counters, so reservations are granted or rejected with CAS operations instead
+ * of contending on one MySQL row. Every grant is appended to a journal segment
+ * and added to a pending delta; a scheduled flush rotates the segment and
+ * subtracts the pending deltas from the products table in one transaction that
+ * also records the segment as applied. A marker is only dropped once its
+ * segment file is gone, and on startup any segment left on disk is replayed
+ * unless its marker says it was already applied.
+ *
+ * Each append is forced to disk before the grant is acknowledged. Appends are
+ * group committed: the first waiting grant forces everything written so far
+ * and acknowledges the grants that arrived meanwhile, so concurrent requests
+ * share one fsync instead of queueing for one each. With
+ * products.hot-stock.sync-writes=false appends are only forced when the
+ * segment rotates, which is faster but loses the grants of the last flush
+ * interval on a machine crash, and sells that stock again.
+ *
+ * Stock lives in this JVM only, so hot mode assumes a single application
+ * instance.
+ */
+@Component
+public class HotStockLedger {
+  private static final Logger logger = LoggerFactory.getLogger(HotStockLedger.class);
+  private static final String SEGMENT_SUFFIX = ".journal";
+
+  private final ProductRepository productRepository;
+  private final HotStockFlushRepository flushRepository;
+  private final ApplicationEventPublisher publisher;
+  private final TransactionTemplate transactionTemplate;
+
+  @Value("${products.hot-stock.enabled:false}")
+  private boolean enabled;
+
+  @Value("${products.hot-stock.stripes:8}")
+  private int stripeCount;
+
+  @Value("${products.hot-stock.journal-dir:hot-stock}")
+  private Path journalDir;
+
+  @Value("${products.hot-stock.sync-writes:true}")
+  private boolean syncWrites;
+
+  @Value("${products.hot-stock.skus:}")
+  private List<String> configuredSkus;
+
+  private final Map<String, HotStock> stocks = new ConcurrentHashMap<>();
+  private final Map<String, LongAdder> pending = new ConcurrentHashMap<>();
+
+  // Write locked while products switch in or out of hot mode, so no request
+  // is halfway through the database path when the stock changes hands
+  private final ReadWriteLock modeLock = new ReentrantReadWriteLock();
+  // Write locked while the journal segment rotates, so a segment always holds
+  // exactly the grants that were drained with it
+  private final ReadWriteLock journalLock = new ReentrantReadWriteLock();
+
+  // Guarded by journalLock
+  private Segment segment;
+  private long lastSegmentId;
+  // Guarded by this
+  private final Deque<Batch> unapplied = new ArrayDeque<>();
+
+  public HotStockLedger(ProductRepository productRepository, HotStockFlushRepository flushRepository,
+      ApplicationEventPublisher publisher, PlatformTransactionManager transactionManager) {
+    this.productRepository = productRepository;
+    this.flushRepository = flushRepository;
+    this.publisher = publisher;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+  }
+
+  // Runs before the web server accepts requests, so nothing is sold against
+  // stock that a previous run already granted
+  @PostConstruct
+  public void recover() throws IOException {
+    // Segments of a run that had hot stock are replayed even if it is off now
+    if (Files.isDirectory(journalDir)) {
+      replay();
+    }
+    if (enabled) {
+      Files.createDirectories(journalDir);
+    }
+    segment = newSegment();
+
+    if (enabled) {
+      for (String sku : configuredSkus) {
+        if (!sku.isBlank()) {
+          enable(sku.trim());
+        }
+      }
+    }
+  }
+
+  private void replay() throws IOException {
+    List<Path> segments;
+    try (Stream<Path> files = Files.list(journalDir)) {
+      segments = files.filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+          .sorted()
+          .toList();
+    }
+    for (Path path : segments) {
+      long id = segmentId(path);
+      lastSegmentId = Math.max(lastSegmentId, id);
+      apply(id, read(path));
+      Files.delete(path);
+      logger.info("Replayed hot stock journal segment {}", id);
+    }
+
+    // No segment is left on disk, so no marker guards anything any more. The
+    // last one still bounds the next segment id, should the clock go back
+    Long lastFlushed = flushRepository.findLastSegment();
+    if (lastFlushed != null) {
+      lastSegmentId = Math.max(lastSegmentId, lastFlushed);
+      transactionTemplate.executeWithoutResult(status -> flushRepository.deleteBefore(lastFlushed + 1));
+    }
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public boolean isHot(String productId) {
+    return stocks.containsKey(productId);
+  }
+
+  // In-memory stock of a hot product, or null when it is not hot
+  public Integer available(String productId) {
+    HotStock stock = stocks.get(productId);
+    return stock == null ? null : stock.available();
+  }
+
+  /**
+   * Reserves stock in memory when the product is hot, otherwise runs the
+   * database path. Either way the result says whether the quantity was granted.
+   */
+  public boolean reserve(String productId, int quantity, BooleanSupplier databasePath) {
+    modeLock.readLock().lock();
+    try {
+      HotStock stock = stocks.get(productId);
+      if (stock == null) {
+        return databasePath.getAsBoolean();
+      }
+      return grant(productId, stock, quantity);
+    } finally {
+      modeLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Reserves every quantity or none, holding the mode lock throughout so no
+   * product switches mode halfway. Hot products are granted in memory first
+   * and the ones that are short are added to unavailable. When all of them
+   * were granted, the other products go to the database path in one call,
+   * which says whether it reserved them. If anything is refused, the memory
+   * grants are handed back.
+   */
+  public boolean reserveAll(Map<String, Integer> quantities, List<String> unavailable,
+      Predicate<Map<String, Integer>> databasePath) {
+    modeLock.readLock().lock();
+    try {
+      Map<String, Integer> granted = new LinkedHashMap<>();
+      Map<String, Integer> database = new TreeMap<>();
+      quantities.forEach((productId, quantity) -> {
+        HotStock stock = stocks.get(productId);
+        if (stock == null) {
+          database.put(productId, quantity);
+        } else if (grant(productId, stock, quantity)) {
+          granted.put(productId, quantity);
+        } else {
+          unavailable.add(productId);
+        }
+      });
+
+      boolean reserved = false;
+      try {
+        reserved = unavailable.isEmpty() && databasePath.test(database);
+      } finally {
+        if (!reserved) {
+          granted.forEach(this::ungrant);
+        }
+      }
+      return reserved;
+    } finally {
+      modeLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Hands reserved stock back. The products that are not hot go to the
+   * database path in one call first; only when it reports that it returned
+   * them is the stock of hot products given back in memory, so a release that
+   * lost a race to another one returns nothing.
+   */
+  public boolean releaseAll(Map<String, Integer> quantities, Predicate<Map<String, Integer>> databasePath) {
+    modeLock.readLock().lock();
+    try {
+      Map<String, Integer> hot = new LinkedHashMap<>();
+      Map<String, Integer> database = new TreeMap<>();
+      quantities.forEach((productId, quantity) -> (stocks.containsKey(productId) ? hot : database)
+          .put(productId, quantity));
+
+      if (!databasePath.test(database)) {
+        return false;
+      }
+      hot.forEach(this::ungrant);
+      return true;
+    } finally {
+      modeLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Runs the database update for a restock and, when the product is hot, makes
+   * the added quantity available in memory as well. Inside a transaction that
+   * only happens once it commits, so a rollback adds nothing. Whether the
+   * product is hot is decided then too: a product switched to hot mode in
+   * between read the table without the uncommitted increment.
+   */
+  public void restock(String productId, int quantity, Runnable databasePath) {
+    databasePath.run();
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCommit() {
+          addToHotStock(productId, quantity);
+        }
+      });
+    } else {
+      addToHotStock(productId, quantity);
+    }
+  }
+
+  public synchronized void enable(String productId) {
+    if (!enabled) {
+      throw new IllegalStateException("Hot stock mode is disabled");
+    }
+    modeLock.writeLock().lock();
+    try {
+      if (stocks.containsKey(productId)) {
+        return;
+      }
+      // Earlier grants must be in the table before it is read back
+      flush();
+      if (!unapplied.isEmpty()) {
+        throw new IllegalStateException("Hot stock journal could not be flushed");
+      }
+      Product product = productRepository.findById(productId).orElseThrow();
+      stocks.put(productId, new HotStock(stripeCount, product.getQuantity()));
+      logger.info("Product {} switched to hot stock mode with {} in stock", productId, product.getQuantity());
+    } finally {
+      modeLock.writeLock().unlock();
+    }
+  }
+
+  public synchronized void disable(String productId) {
+    modeLock.writeLock().lock();
+    try {
+      HotStock stock = stocks.remove(productId);
+      if (stock != null) {
+        flush();
+        if (!unapplied.isEmpty()) {
+          stocks.put(productId, stock);
+          throw new IllegalStateException("Hot stock journal could not be flushed");
+        }
+        logger.info("Product {} switched back to database stock", productId);
+      }
+    } finally {
+      modeLock.writeLock().unlock();
+    }
+  }
+
+  @Scheduled(fixedDelayString = "${products.hot-stock.flush-interval-ms:200}")
+  public synchronized void flush() {
+    Batch batch;
+    journalLock.writeLock().lock();
+    try {
+      Map<String, Long> deltas = new HashMap<>();
+      pending.forEach((productId, delta) -> {
+        long value = delta.sumThenReset();
+        if (value != 0) {
+          deltas.put(productId, value);
+        }
+      });
+      batch = new Batch(segment, deltas);
+      segment = newSegment();
+    } finally {
+      journalLock.writeLock().unlock();
+    }
+
+    batch.segment().close();
+    if (batch.segment().isWritten()) {
+      unapplied.add(batch);
+    }
+
+    // Batches are applied in order; a failed one is retried on the next tick
+    while (!unapplied.isEmpty()) {
+      Batch next = unapplied.peek();
+      try {
+        apply(next.segment().id(), next.deltas());
+      } catch (RuntimeException e) {
+        logger.error("Could not flush hot stock segment {}: {}", next.segment().id(), e.getMessage());
+        return;
+      }
+      unapplied.poll();
+      // A segment that could not be deleted keeps its marker, so a restart
+      // skips it instead of applying it again
+      if (next.segment().delete()) {
+        forget(next.segment().id());
+      }
+    }
+  }
+
+  private boolean grant(String productId, HotStock stock, int quantity) {
+    journalLock.readLock().lock();
+    try {
+      if (!stock.take(quantity)) {
+        return false;
+      }
+      try {
+        segment.append(productId, quantity);
+      } catch (IOException e) {
+        stock.add(quantity);
+        throw new UncheckedIOException(e);
+      }
+      pending.computeIfAbsent(productId, key -> new LongAdder()).add(quantity);
+      return true;
+    } finally {
+      journalLock.readLock().unlock();
+    }
+  }
+
+  private void addToHotStock(String productId, int quantity) {
+    modeLock.readLock().lock();
+    try {
+      HotStock stock = stocks.get(productId);
+      if (stock != null) {
+        stock.add(quantity);
+      }
+    } finally {
+      modeLock.readLock().unlock();
+    }
+  }
+
+  // Journals a negative grant, so the flush and a replay both net it out
+  private void ungrant(String productId, int quantity) {
+    journalLock.readLock().lock();
+    try {
+      HotStock stock = stocks.get(productId);
+      try {
+        segment.append(productId, -quantity);
+      } catch (IOException e) {
+        // Lost to the hot stock rather than oversold
+        throw new UncheckedIOException(e);
+      }
+      pending.computeIfAbsent(productId, key -> new LongAdder()).add(-quantity);
+      stock.add(quantity);
+    } finally {
+      journalLock.readLock().unlock();
+    }
+  }
+
+  private void apply(long segmentId, Map<String, Long> deltas) {
+    if (deltas.isEmpty()) {
+      return;
+    }
+    boolean applied = Boolean.TRUE.equals(transactionTemplate.execute(status -> {
+      if (flushRepository.existsById(segmentId)) {
+        return false;
+      }
+      deltas.forEach((productId, delta) -> productRepository.decreaseQuantity(productId, Math.toIntExact(delta)));
+      flushRepository.save(new HotStockFlush(segmentId));
+      return true;
+    }));
+
+    if (applied) {
+      for (Product product : productRepository.findAllById(deltas.keySet())) {
+        publisher.publishEvent(new ProductChangedEvent(product, ProductChangedEvent.Change.QUANTITY));
+      }
+    }
+  }
+
+  // A marker left behind by a failure here only costs a row
+  private void forget(long segmentId) {
+    try {
+      transactionTemplate.executeWithoutResult(status -> flushRepository.deleteById(segmentId));
+    } catch (RuntimeException e) {
+      logger.warn("Could not drop the marker of hot stock segment {}: {}", segmentId, e.getMessage());
+    }
+  }
+
+  private Segment newSegment() {
+    lastSegmentId = Math.max(System.currentTimeMillis(), lastSegmentId + 1);
+    return new Segment(lastSegmentId, journalDir.resolve(lastSegmentId + SEGMENT_SUFFIX), syncWrites);
+  }
+
+  private static long segmentId(Path path) {
+    String name = path.getFileName().toString();
+    return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+  }
+
+  // A line cut short by a crash has no trailing newline and is ignored, its
+  // grant was never acknowledged
+  private static Map<String, Long> read(Path path) throws IOException {
+    Map<String, Long> deltas = new HashMap<>();
+    String content = Files.readString(path, StandardCharsets.UTF_8);
+    int end = content.lastIndexOf('\n');
+    if (end < 0) {
+      return deltas;
+    }
+    for (String line : content.substring(0, end).split("\n")) {
+      int comma = line.lastIndexOf(',');
+      if (comma > 0) {
+        deltas.merge(line.substring(0, comma), Long.parseLong(line.substring(comma + 1)), Long::sum);
+      }
+    }
+    return deltas;
+  }
+
+  private record Batch(Segment segment, Map<String, Long> deltas) {
+  }
+
+  /**
+   * Stock of one hot product, spread over independent atomic stripes. A
+   * reservation starts at a random stripe and borrows from the next ones when
+   * it needs more than a single stripe holds.
+   */
+  private static final class HotStock {
+    private final AtomicIntegerArray stripes;
+
+    HotStock(int stripeCount, int quantity) {
+      stripes = new AtomicIntegerArray(Math.max(1, stripeCount));
+      int length = stripes.length();
+      for (int i = 0; i < length; i++) {
+        stripes.set(i, quantity / length + (i < quantity % length ? 1 : 0));
+      }
+    }
+
+    boolean take(int quantity) {
+      int length = stripes.length();
+      int start = ThreadLocalRandom.current().nextInt(length);
+      int[] taken = new int[length];
+      int remaining = quantity;
+
+      for (int i = 0; i < length && remaining > 0; i++) {
+        int stripe = (start + i) % length;
+        int current;
+        int amount;
+        do {
+          current = stripes.get(stripe);
+          amount = Math.min(current, remaining);
+        } while (amount > 0 && !stripes.compareAndSet(stripe, current, current - amount));
+        taken[stripe] = amount;
+        remaining -= amount;
+      }
+
+      if (remaining > 0) {
+        for (int stripe = 0; stripe < length; stripe++) {
+          if (taken[stripe] > 0) {
+            stripes.addAndGet(stripe, taken[stripe]);
+          }
+        }
+        return false;
+      }
+      return true;
+    }
+
+    void add(int quantity) {
+      stripes.addAndGet(ThreadLocalRandom.current().nextInt(stripes.length()), quantity);
+    }
+
+    int available() {
+      int total = 0;
+      for (int i = 0; i < stripes.length(); i++) {
+        total += stripes.get(i);
+      }
+      return total;
+    }
+  }
+
+  /**
+   * Append-only journal file, created on the first grant so idle intervals do
+   * not leave empty files behind.
+   */
+  private static final class Segment {
+    private final long id;
+    private final Path path;
+    private final boolean sync;
+    private FileChannel channel;
+    // Guarded by this: lines written, lines known to be on disk, and whether a
+    // grant is forcing the channel for the others right now
+    private long written;
+    private long forced;
+    private boolean forcing;
+
+    Segment(long id, Path path, boolean sync) {
+      this.id = id;
+      this.path = path;
+      this.sync = sync;
+    }
+
+    long id() {
+      return id;
+    }
+
+    synchronized boolean isWritten() {
+      return channel != null;
+    }
+
+    void append(String productId, int quantity) throws IOException {
+      byte[] line = (productId + "," + quantity + "\n").getBytes(StandardCharsets.UTF_8);
+      long position;
+      synchronized (this) {
+        channel().write(ByteBuffer.wrap(line));
+        position = ++written;
+      }
+      if (sync) {
+        awaitForced(position);
+      }
+    }
+
+    // Returns once the line at position is on disk. A grant that finds no force
+    // running starts one covering every line written so far; the others wait
+    // for it and only force again when their line came after it started
+    private void awaitForced(long position) throws IOException {
+      long target;
+      synchronized (this) {
+        boolean interrupted = false;
+        while (forced < position && forcing) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            interrupted = true;
+          }
+        }
+        if (interrupted) {
+          Thread.currentThread().interrupt();
+        }
+        if (forced >= position) {
+          return;
+        }
+        forcing = true;
+        target = written;
+      }
+
+      boolean done = false;
+      try {
+        channel.force(false);
+        done = true;
+      } finally {
+        synchronized (this) {
+          forcing = false;
+          if (done) {
+            forced = Math.max(forced, target);
+          }
+          notifyAll();
+        }
+      }
+    }
+
+    synchronized void close() {
+      if (channel == null) {
+        return;
+      }
+      try {
+        channel.force(false);
+        channel.close();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    boolean delete() {
+      try {
+        Files.deleteIfExists(path);
+        return true;
+      } catch (IOException e) {
+        logger.warn("Could not delete hot stock segment {}, keeping its marker: {}", path, e.getMessage());
+        return false;
+      }
+    }
+
+    private synchronized FileChannel channel() throws IOException {
+      if (channel == null) {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.APPEND);
+      }
+      return channel;
+    }
+  }
+}
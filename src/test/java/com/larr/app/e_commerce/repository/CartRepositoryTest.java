@@ -0,0 +1,129 @@
+package com.larr.app.e_commerce.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+
+import com.larr.app.e_commerce.dto.CartSummaryRow;
+import com.larr.app.e_commerce.model.Cart;
+import com.larr.app.e_commerce.model.CartItem;
+import com.larr.app.e_commerce.model.CartStatus;
+import com.larr.app.e_commerce.model.Category;
+import com.larr.app.e_commerce.model.Product;
+import com.larr.app.e_commerce.model.User;
+
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+class CartRepositoryTest {
+    @Autowired
+    private CartRepository repository;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    private Statistics statistics;
+
+    @BeforeEach
+    void setUp() {
+        statistics = entityManager.getEntityManager().getEntityManagerFactory().unwrap(SessionFactory.class)
+                .getStatistics();
+    }
+
+    @Test
+    void summaryIsOneStatementWhateverTheNumberOfItems() {
+        String small = cartWithItems(1);
+        String large = cartWithItems(25);
+
+        assertThat(summaryStatements(small)).isEqualTo(1);
+        assertThat(summaryStatements(large)).isEqualTo(1);
+    }
+
+    @Test
+    void summaryOfAnEmptyCartIsItsHeader() {
+        String empty = cartWithItems(0);
+
+        statistics.clear();
+        List<CartSummaryRow> rows = repository.findSummaryRows(empty);
+
+        assertThat(rows).singleElement().satisfies(row -> {
+            assertThat(row.cartId()).isEqualTo(empty);
+            assertThat(row.itemId()).isNull();
+        });
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+    }
+
+    @Test
+    void purgedTotalsAreClearedForAbandonedCartsOnly() {
+        String abandoned = cartWithTotal(cartWithItems(2), CartStatus.abandoned);
+        String active = cartWithTotal(cartWithItems(3), CartStatus.active);
+
+        int cleared = repository.clearAbandonedTotals(List.of(abandoned, active));
+        entityManager.clear();
+
+        assertThat(cleared).isEqualTo(1);
+        assertThat(repository.findById(abandoned).orElseThrow().getTotalprice()).isZero();
+        assertThat(repository.findById(active).orElseThrow().getTotalprice()).isEqualTo(30);
+    }
+
+    private String cartWithTotal(String cartId, CartStatus status) {
+        Cart cart = entityManager.find(Cart.class, cartId);
+        cart.setStatus(status);
+        cart.setTotalprice(10 * entityManager.getEntityManager()
+                .createQuery("SELECT COUNT(i) FROM CartItem i WHERE i.cart.id = :id", Long.class)
+                .setParameter("id", cartId).getSingleResult());
+        entityManager.flush();
+        entityManager.clear();
+        return cartId;
+    }
+
+    // Counts the statements of one summary read on an empty persistence
+    // context, so nothing is served from the first level cache
+    private long summaryStatements(String cartId) {
+        entityManager.clear();
+        statistics.clear();
+        List<CartSummaryRow> rows = repository.findSummaryRows(cartId);
+        assertThat(rows).isNotEmpty().allSatisfy(row -> assertThat(row.productName()).isNotNull());
+        return statistics.getPrepareStatementCount();
+    }
+
+    private String cartWithItems(int count) {
+        User user = new User();
+        user.setEmail("shopper-" + count + "@example.com");
+        entityManager.persist(user);
+
+        Category category = new Category();
+        category.setName("category-" + count);
+        entityManager.persist(category);
+
+        Cart cart = new Cart();
+        cart.setUser(user);
+        entityManager.persist(cart);
+
+        for (int i = 0; i < count; i++) {
+            Product product = new Product();
+            product.setName("product-" + count + "-" + i);
+            product.setCategory(category);
+            product.setPrice(10);
+            product.setQuantity(5);
+            entityManager.persist(product);
+
+            CartItem item = new CartItem();
+            item.setCart(cart);
+            item.setProduct(product);
+            item.setQuantity(1);
+            item.setPrice(10);
+            item.setSubtotal(10);
+            entityManager.persist(item);
+        }
+        entityManager.flush();
+        entityManager.clear();
+        return cart.getId();
+    }
+}
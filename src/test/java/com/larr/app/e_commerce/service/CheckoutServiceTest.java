@@ -0,0 +1,119 @@
+package com.larr.app.e_commerce.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.larr.app.e_commerce.dto.StockReservationResult;
+import com.larr.app.e_commerce.model.Cart;
+import com.larr.app.e_commerce.model.CartItem;
+import com.larr.app.e_commerce.model.Product;
+import com.larr.app.e_commerce.repository.CartItemRepository;
+import com.larr.app.e_commerce.repository.CartRepository;
+import com.larr.app.e_commerce.repository.ProductRepository;
+import com.larr.app.e_commerce.service.stock.HotStockLedger;
+
+// Checkout takes stock in transactions of its own, so the data is committed
+@DataJpaTest
+@Import({ CheckoutService.class, HotStockLedger.class })
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class CheckoutServiceTest {
+    @Autowired
+    private CheckoutService checkoutService;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private CartRepository cartRepository;
+
+    @Autowired
+    private CartItemRepository cartItemRepository;
+
+    @Test
+    void cartWithANegativeLineIsRefusedAndLeavesStockAlone() {
+        Product product = product("refused", 5);
+        Product other = product("untouched", 5);
+        Cart cart = cartRepository.save(new Cart());
+        item(cart, product, -3);
+        item(cart, other, 1);
+
+        StockReservationResult result = checkoutService.reserve(cart);
+
+        assertThat(result.reservation()).isNull();
+        assertThat(result.refusal()).isEqualTo(StockReservationResult.Refusal.INVALID_QUANTITY);
+        assertThat(result.products()).containsExactly(product.getId());
+        assertThat(quantity(product)).isEqualTo(5);
+        assertThat(quantity(other)).isEqualTo(5);
+    }
+
+    @Test
+    void cartWithAZeroLineIsRefused() {
+        Product product = product("zero", 5);
+        Cart cart = cartRepository.save(new Cart());
+        item(cart, product, 0);
+
+        StockReservationResult result = checkoutService.reserve(cart);
+
+        assertThat(result.refusal()).isEqualTo(StockReservationResult.Refusal.INVALID_QUANTITY);
+        assertThat(quantity(product)).isEqualTo(5);
+    }
+
+    @Test
+    void cartWithPositiveLinesTakesTheStock() {
+        Product product = product("taken", 5);
+        Cart cart = cartRepository.save(new Cart());
+        item(cart, product, 2);
+
+        StockReservationResult result = checkoutService.reserve(cart);
+
+        assertThat(result.reservation()).isNotNull();
+        assertThat(quantity(product)).isEqualTo(3);
+    }
+
+    @Test
+    void failedPaymentOfARetryLeavesTheReusedReservationAlone() {
+        Product product = product("retried", 5);
+        Cart cart = cartRepository.save(new Cart());
+        item(cart, product, 2);
+        StockReservationResult first = checkoutService.reserve(cart);
+
+        StockReservationResult retry = checkoutService.reserve(cart);
+        checkoutService.release(retry);
+
+        assertThat(first.created()).isTrue();
+        assertThat(retry.created()).isFalse();
+        assertThat(retry.reservation().getId()).isEqualTo(first.reservation().getId());
+        assertThat(quantity(product)).isEqualTo(3);
+
+        checkoutService.release(first);
+        assertThat(quantity(product)).isEqualTo(5);
+    }
+
+    private Product product(String name, int quantity) {
+        Product product = new Product();
+        product.setName(name);
+        product.setPrice(10);
+        product.setQuantity(quantity);
+        return productRepository.save(product);
+    }
+
+    private void item(Cart cart, Product product, int quantity) {
+        CartItem item = new CartItem();
+        item.setCart(cart);
+        item.setProduct(product);
+        item.setQuantity(quantity);
+        item.setPrice(product.getPrice());
+        item.setSubtotal(product.getPrice() * quantity);
+        cartItemRepository.save(item);
+    }
+
+    private int quantity(Product product) {
+        return productRepository.findById(product.getId()).orElseThrow().getQuantity();
+    }
+}
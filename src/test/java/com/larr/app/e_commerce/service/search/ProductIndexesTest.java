@@ -0,0 +1,87 @@
+package com.larr.app.e_commerce.service.search;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import com.larr.app.e_commerce.dto.ProductSuggestion;
+import com.larr.app.e_commerce.model.Product;
+import com.larr.app.e_commerce.repository.ProductRepository;
+import com.larr.app.e_commerce.service.ProductChangedEvent;
+import com.larr.app.e_commerce.service.ProductChangedEvent.Change;
+
+import jakarta.persistence.EntityManager;
+
+// Built by hand: their startup rebuild streams with a MySQL-only fetch size
+@DataJpaTest
+class ProductIndexesTest {
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private ProductSearchIndex searchIndex;
+    private ProductFacetIndex facetIndex;
+    private ProductSuggester suggester;
+
+    @BeforeEach
+    void createIndexes() {
+        searchIndex = new ProductSearchIndex(productRepository, entityManager, transactionManager);
+        facetIndex = new ProductFacetIndex(productRepository, entityManager, transactionManager,
+                new double[] { 10, 100 });
+        suggester = new ProductSuggester(productRepository, entityManager, transactionManager, 1000);
+    }
+
+    @Test
+    void olderEventsAreDropped() {
+        Product product = product("Stale lamp");
+        Product older = copy(product);
+        product.setName("Fresh lamp");
+        product = productRepository.saveAndFlush(product);
+        changed(product);
+
+        changed(older);
+
+        assertThat(searchIndex.search("fresh", 10)).extracting(Product::getId).containsExactly(product.getId());
+        assertThat(searchIndex.search("stale", 10)).isEmpty();
+        assertThat(facetIndex.query(null, null, null, null, null, 0, 10).products())
+                .filteredOn(indexed -> indexed.getId().equals(older.getId()))
+                .extracting(Product::getName).containsExactly("Fresh lamp");
+        assertThat(suggester.suggest("stale", 10)).isEmpty();
+        assertThat(suggester.suggest("fresh", 10)).extracting(ProductSuggestion::id).containsExactly(product.getId());
+    }
+
+    private Product product(String name) {
+        Product product = new Product();
+        product.setName(name);
+        product.setPrice(10);
+        product.setQuantity(1);
+        return productRepository.save(product);
+    }
+
+    private void changed(Product product) {
+        ProductChangedEvent event = new ProductChangedEvent(product, Change.NAME);
+        searchIndex.onProductChanged(event);
+        facetIndex.onProductChanged(event);
+        suggester.onProductChanged(event);
+    }
+
+    private static Product copy(Product source) {
+        Product product = new Product();
+        product.setId(source.getId());
+        product.setName(source.getName());
+        product.setPrice(source.getPrice());
+        product.setQuantity(source.getQuantity());
+        product.setActive(source.isActive());
+        product.setVersion(source.getVersion());
+        return product;
+    }
+}
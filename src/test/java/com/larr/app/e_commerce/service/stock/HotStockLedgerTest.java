@@ -0,0 +1,76 @@
+package com.larr.app.e_commerce.service.stock;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.larr.app.e_commerce.model.Product;
+import com.larr.app.e_commerce.repository.ProductRepository;
+
+// The ledger flushes in transactions of its own, so the data is committed
+@DataJpaTest
+@Import(HotStockLedger.class)
+@TestPropertySource(properties = {
+        "products.hot-stock.enabled=true",
+        "products.hot-stock.sync-writes=true",
+        "products.hot-stock.journal-dir=target/hot-stock-test" })
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class HotStockLedgerTest {
+    @Autowired
+    private HotStockLedger ledger;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Test
+    void concurrentGrantsShareForcedAppendsWithoutOverselling() throws Exception {
+        Product product = new Product();
+        product.setName("flash sale");
+        product.setPrice(10);
+        product.setQuantity(100);
+        product = productRepository.save(product);
+        String productId = product.getId();
+        ledger.enable(productId);
+
+        ExecutorService requests = Executors.newFixedThreadPool(8);
+        List<Callable<Integer>> tasks = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            tasks.add(() -> {
+                int granted = 0;
+                for (int j = 0; j < 20; j++) {
+                    if (ledger.reserve(productId, 1, () -> false)) {
+                        granted++;
+                    }
+                }
+                return granted;
+            });
+        }
+        int granted = 0;
+        try {
+            for (Future<Integer> result : requests.invokeAll(tasks)) {
+                granted += result.get();
+            }
+        } finally {
+            requests.shutdownNow();
+        }
+
+        assertThat(granted).isEqualTo(100);
+        assertThat(ledger.available(productId)).isZero();
+
+        ledger.flush();
+        assertThat(productRepository.findById(productId).orElseThrow().getQuantity()).isZero();
+    }
+}